@@ -0,0 +1,49 @@
+package com.mdstech.opearator.cloudformation;
+
+import io.fabric8.kubernetes.api.model.ObjectMetaBuilder;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+final class BenchmarkStacks {
+
+    static final String TEMPLATE = "---\n" +
+            "AWSTemplateFormatVersion: '2010-09-09'\n" +
+            "Parameters:\n" +
+            "  Environment:\n" +
+            "    Type: String\n" +
+            "Resources:\n" +
+            "  S3Bucket:\n" +
+            "    Type: AWS::S3::Bucket\n" +
+            "    Properties:\n" +
+            "      VersioningConfiguration:\n" +
+            "        Status: Suspended\n";
+
+    private BenchmarkStacks() {
+    }
+
+    static Stack newStack(int index, int parameterCount, int tagCount) {
+        Stack stack = new Stack();
+        stack.setMetadata(new ObjectMetaBuilder()
+                .withName("stack-" + index)
+                .withNamespace("ns-" + (index % 16))
+                .withUid("uid-" + index)
+                .withGeneration(1L)
+                .build());
+        StackSpec spec = new StackSpec();
+        spec.setTemplate(TEMPLATE);
+        spec.setCustomRoleARN("arn:aws:iam::000000000000:role/cloudformation");
+        spec.setParameters(entries("Parameter", parameterCount));
+        spec.setTags(entries("tag", tagCount));
+        stack.setSpec(spec);
+        return stack;
+    }
+
+    static Map<String, String> entries(String prefix, int count) {
+        Map<String, String> entries = new LinkedHashMap<>();
+        for(int i = 0; i < count; i++) {
+            entries.put(prefix + i, "value-" + i);
+        }
+        return entries;
+    }
+}
@@ -0,0 +1,105 @@
+package com.mdstech.opearator.cloudformation;
+
+import com.amazonaws.services.cloudformation.model.AmazonCloudFormationException;
+import com.amazonaws.services.cloudformation.model.CreateStackRequest;
+import com.amazonaws.services.cloudformation.model.DescribeStacksRequest;
+import com.amazonaws.services.cloudformation.model.ValidateTemplateRequest;
+import org.openjdk.jmh.annotations.*;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the platform worker pool with the virtual thread mode of AwsCallExecutor. Every
+ * operation reconciles a wave of concurrent stacks, each making the blocking calls of a
+ * create: validate, describe of the missing stack and create. Both modes run one caller per stack on the threads
+ * the operator gives its callers ({@link CallerThreads}): in platform mode a platform
+ * thread whose calls hop onto the worker pool, in virtual mode a virtual thread making the
+ * calls itself. The peak thread count and heap in use are printed when a trial ends. Add
+ * -prof gc for allocation rates.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 10)
+@Measurement(iterations = 5, time = 10)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx2g", "-Dlog4j.configurationFile=log4j2-benchmark.xml"})
+public class ExecutionModeBenchmark {
+
+    @Param({"platform", "virtual"})
+    public String mode;
+
+    @Param({"1000", "5000"})
+    public int concurrentStacks;
+
+    @Param({"16", "256"})
+    public int maxConcurrentCalls;
+
+    @Param({"20"})
+    public long latencyMillis;
+
+    private AwsCallExecutor callExecutor;
+    private FakeCloudFormation cloudFormation;
+    private ExecutorService stacks;
+    private AwsTarget target;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        boolean virtualThreads = "virtual".equals(mode);
+        callExecutor = new AwsCallExecutor(maxConcurrentCalls, virtualThreads, 1_000_000, 1_000_000, 6, new OperatorMetrics());
+        cloudFormation = new FakeCloudFormation(latencyMillis, 0);
+        stacks = CallerThreads.pool("stack-", concurrentStacks, virtualThreads);
+        target = new AwsTarget("us-east-1", null);
+        ManagementFactory.getThreadMXBean().resetPeakThreadCount();
+    }
+
+    @Setup(Level.Invocation)
+    public void clearStacks() {
+        // Every wave creates its stacks again
+        cloudFormation.clear();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+        System.out.printf("%n%s mode, %d stacks, %d concurrent calls: peak threads %d, heap used %d MB%n",
+                mode, concurrentStacks, maxConcurrentCalls,
+                ManagementFactory.getThreadMXBean().getPeakThreadCount(), heap.getUsed() / (1024 * 1024));
+        stacks.shutdownNow();
+        callExecutor.close();
+    }
+
+    @Benchmark
+    public int reconcileWave() throws Exception {
+        List<Future<Object>> reconciles = new ArrayList<>(concurrentStacks);
+        for(int i = 0; i < concurrentStacks; i++) {
+            String stackName = "stack-" + i;
+            reconciles.add(stacks.submit(() -> {
+                callExecutor.call(target, "validateTemplate", () -> cloudFormation.validateTemplate(
+                        new ValidateTemplateRequest().withTemplateBody(BenchmarkStacks.TEMPLATE)));
+                try {
+                    callExecutor.call(target, "describeStacks", () -> cloudFormation.describeStacks(
+                            new DescribeStacksRequest().withStackName(stackName)));
+                }
+                catch (AmazonCloudFormationException ex) {
+                    if(!StackStatusPoller.isMissingStack(ex)) {
+                        throw ex;
+                    }
+                }
+                return callExecutor.call(target, "createStack", () -> cloudFormation.createStack(
+                        new CreateStackRequest()
+                                .withStackName(stackName)
+                                .withTemplateBody(BenchmarkStacks.TEMPLATE)));
+            }));
+        }
+        for(Future<Object> reconcile : reconciles) {
+            reconcile.get();
+        }
+        return reconciles.size();
+    }
+}
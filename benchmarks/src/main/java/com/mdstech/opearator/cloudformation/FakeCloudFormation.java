@@ -0,0 +1,304 @@
+package com.mdstech.opearator.cloudformation;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.cloudformation.AbstractAmazonCloudFormation;
+import com.amazonaws.services.cloudformation.model.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * In-process stand-in for CloudFormation. Every call waits for the configured latency and
+ * fails with a Throttling error at the configured rate. Stack operations and change sets
+ * stay in progress for the configured number of DescribeStacks, ListStacks or
+ * DescribeChangeSet observations and then complete; with none they complete as soon as they
+ * are accepted. Like CloudFormation, creating an existing stack fails with
+ * AlreadyExistsException, updating a stack in progress fails with a ValidationError, and a
+ * deleted stack is only visible to ListStacks.
+ */
+public class FakeCloudFormation extends AbstractAmazonCloudFormation {
+
+    private static final int PAGE_SIZE = 100;
+
+    private final long latencyNanos;
+    private final double throttleRate;
+    private final int pollsToComplete;
+    private final NavigableMap<String, StackSummary> stacks = new ConcurrentSkipListMap<>();
+    private final Map<String, Integer> pendingPolls = new ConcurrentHashMap<>();
+    private final Map<String, ChangeSet> changeSets = new ConcurrentHashMap<>();
+    private final AtomicLong calls = new AtomicLong();
+    private final AtomicLong throttled = new AtomicLong();
+
+    public FakeCloudFormation(long latencyMillis, double throttleRate) {
+        this(latencyMillis, throttleRate, 0);
+    }
+
+    public FakeCloudFormation(long latencyMillis, double throttleRate, int pollsToComplete) {
+        this.latencyNanos = TimeUnit.MILLISECONDS.toNanos(latencyMillis);
+        this.throttleRate = throttleRate;
+        this.pollsToComplete = pollsToComplete;
+    }
+
+    public void seed(String stackName, String status) {
+        pendingPolls.remove(stackName);
+        Date now = new Date();
+        stacks.put(stackName, new StackSummary()
+                .withStackId(stackId(stackName))
+                .withStackName(stackName)
+                .withStackStatus(status)
+                .withCreationTime(now)
+                .withLastUpdatedTime(now));
+    }
+
+    public void forget(String stackName) {
+        pendingPolls.remove(stackName);
+        stacks.remove(stackName);
+    }
+
+    public void clear() {
+        pendingPolls.clear();
+        stacks.clear();
+        changeSets.clear();
+    }
+
+    public long getCalls() {
+        return calls.get();
+    }
+
+    public long getThrottled() {
+        return throttled.get();
+    }
+
+    @Override
+    public CreateStackResult createStack(CreateStackRequest request) {
+        call();
+        StackSummary existing = stacks.get(request.getStackName());
+        if(existing != null && !"DELETE_COMPLETE".equals(existing.getStackStatus())) {
+            throw error("AlreadyExistsException", "Stack [" + request.getStackName() + "] already exists", 400);
+        }
+        start(request.getStackName(), "CREATE_IN_PROGRESS");
+        return new CreateStackResult().withStackId(stackId(request.getStackName()));
+    }
+
+    @Override
+    public UpdateStackResult updateStack(UpdateStackRequest request) {
+        call();
+        requireSettled(request.getStackName());
+        start(request.getStackName(), "UPDATE_IN_PROGRESS");
+        return new UpdateStackResult().withStackId(stackId(request.getStackName()));
+    }
+
+    @Override
+    public DeleteStackResult deleteStack(DeleteStackRequest request) {
+        call();
+        StackSummary summary = stacks.get(request.getStackName());
+        if(summary != null && !summary.getStackStatus().startsWith("DELETE_")) {
+            summary.withDeletionTime(new Date());
+            transition(summary, "DELETE_IN_PROGRESS");
+        }
+        return new DeleteStackResult();
+    }
+
+    @Override
+    public DescribeStacksResult describeStacks(DescribeStacksRequest request) {
+        call();
+        StackSummary summary = observe(requireStack(request.getStackName()));
+        return new DescribeStacksResult().withStacks(new com.amazonaws.services.cloudformation.model.Stack()
+                .withStackId(summary.getStackId())
+                .withStackName(summary.getStackName())
+                .withStackStatus(summary.getStackStatus())
+                .withOutputs(new Output().withOutputKey("StackName").withOutputValue(summary.getStackName())));
+    }
+
+    @Override
+    public ListStacksResult listStacks(ListStacksRequest request) {
+        call();
+        Set<String> filters = request.getStackStatusFilters() == null || request.getStackStatusFilters().isEmpty() ?
+                null : new HashSet<>(request.getStackStatusFilters());
+        NavigableMap<String, StackSummary> page = request.getNextToken() == null ?
+                stacks : stacks.tailMap(request.getNextToken(), true);
+        List<StackSummary> summaries = new ArrayList<>(PAGE_SIZE);
+        String nextToken = null;
+        for(StackSummary summary : page.values()) {
+            if(summaries.size() == PAGE_SIZE) {
+                nextToken = summary.getStackName();
+                break;
+            }
+            observe(summary);
+            if(filters == null || filters.contains(summary.getStackStatus())) {
+                summaries.add(summary);
+            }
+        }
+        return new ListStacksResult().withStackSummaries(summaries).withNextToken(nextToken);
+    }
+
+    @Override
+    public DescribeStackEventsResult describeStackEvents(DescribeStackEventsRequest request) {
+        call();
+        return new DescribeStackEventsResult().withStackEvents(Collections.emptyList());
+    }
+
+    @Override
+    public ValidateTemplateResult validateTemplate(ValidateTemplateRequest request) {
+        call();
+        return new ValidateTemplateResult();
+    }
+
+    @Override
+    public CreateChangeSetResult createChangeSet(CreateChangeSetRequest request) {
+        call();
+        requireSettled(request.getStackName());
+        String id = stackId(request.getStackName()) + "/changeSet/" + request.getChangeSetName();
+        changeSets.put(id, new ChangeSet(request.getStackName(), pollsToComplete));
+        return new CreateChangeSetResult().withId(id).withStackId(stackId(request.getStackName()));
+    }
+
+    @Override
+    public DescribeChangeSetResult describeChangeSet(DescribeChangeSetRequest request) {
+        call();
+        ChangeSet changeSet = changeSets.get(request.getChangeSetName());
+        if(changeSet == null) {
+            throw error("ChangeSetNotFound", "ChangeSet " + request.getChangeSetName() + " does not exist", 404);
+        }
+        return new DescribeChangeSetResult()
+                .withChangeSetId(request.getChangeSetName())
+                .withStackName(changeSet.stackName)
+                .withStatus(changeSet.observe() ? "CREATE_COMPLETE" : "CREATE_IN_PROGRESS")
+                .withChanges(new Change().withType(ChangeType.Resource));
+    }
+
+    @Override
+    public ExecuteChangeSetResult executeChangeSet(ExecuteChangeSetRequest request) {
+        call();
+        ChangeSet changeSet = changeSets.get(request.getChangeSetName());
+        if(changeSet == null) {
+            throw error("ChangeSetNotFound", "ChangeSet " + request.getChangeSetName() + " does not exist", 404);
+        }
+        requireSettled(changeSet.stackName);
+        changeSets.remove(request.getChangeSetName());
+        start(changeSet.stackName, "UPDATE_IN_PROGRESS");
+        return new ExecuteChangeSetResult();
+    }
+
+    @Override
+    public DeleteChangeSetResult deleteChangeSet(DeleteChangeSetRequest request) {
+        call();
+        changeSets.remove(request.getChangeSetName());
+        return new DeleteChangeSetResult();
+    }
+
+    private void call() {
+        calls.incrementAndGet();
+        if(latencyNanos > 0) {
+            LockSupport.parkNanos(latencyNanos);
+        }
+        if(throttleRate > 0 && ThreadLocalRandom.current().nextDouble() < throttleRate) {
+            throttled.incrementAndGet();
+            throw error("Throttling", "Rate exceeded", 400);
+        }
+    }
+
+    private void start(String stackName, String status) {
+        StackSummary summary = stacks.get(stackName);
+        if(summary == null || "DELETE_COMPLETE".equals(summary.getStackStatus())) {
+            seed(stackName, status);
+            summary = stacks.get(stackName);
+        }
+        else {
+            summary.withLastUpdatedTime(new Date());
+        }
+        transition(summary, status);
+    }
+
+    /**
+     * Puts the stack in the given in-progress status until it has been observed the
+     * configured number of times.
+     */
+    private void transition(StackSummary summary, String status) {
+        if(pollsToComplete == 0) {
+            summary.setStackStatus(completed(status));
+            return;
+        }
+        pendingPolls.compute(summary.getStackName(), (name, polls) -> {
+            summary.setStackStatus(status);
+            return pollsToComplete;
+        });
+    }
+
+    private StackSummary observe(StackSummary summary) {
+        pendingPolls.computeIfPresent(summary.getStackName(), (name, polls) -> {
+            if(polls > 1) {
+                return polls - 1;
+            }
+            summary.setStackStatus(completed(summary.getStackStatus()));
+            return null;
+        });
+        return summary;
+    }
+
+    private StackSummary requireStack(String stackName) {
+        StackSummary summary = stacks.get(stackName);
+        if(summary == null || "DELETE_COMPLETE".equals(summary.getStackStatus())) {
+            throw error("ValidationError", "Stack with id " + stackName + " does not exist", 400);
+        }
+        return summary;
+    }
+
+    private StackSummary requireSettled(String stackName) {
+        StackSummary summary = requireStack(stackName);
+        if(summary.getStackStatus().endsWith("_IN_PROGRESS")) {
+            throw error("ValidationError", "Stack:" + summary.getStackId() + " is in " + summary.getStackStatus() +
+                    " state and can not be updated.", 400);
+        }
+        return summary;
+    }
+
+    private static String completed(String status) {
+        return status.replace("_IN_PROGRESS", "_COMPLETE");
+    }
+
+    private static AmazonCloudFormationException error(String code, String message, int statusCode) {
+        AmazonCloudFormationException ex = new AmazonCloudFormationException(message);
+        ex.setErrorCode(code);
+        ex.setErrorMessage(message);
+        ex.setStatusCode(statusCode);
+        ex.setErrorType(AmazonServiceException.ErrorType.Client);
+        ex.setServiceName("AmazonCloudFormation");
+        return ex;
+    }
+
+    private static String stackId(String stackName) {
+        return "arn:aws:cloudformation:us-east-1:000000000000:stack/" + stackName + "/fake";
+    }
+
+    private static class ChangeSet {
+        private final String stackName;
+        private int pendingPolls;
+
+        private ChangeSet(String stackName, int pendingPolls) {
+            this.stackName = stackName;
+            this.pendingPolls = pendingPolls;
+        }
+
+        private synchronized boolean observe() {
+            if(pendingPolls > 1) {
+                pendingPolls--;
+                return false;
+            }
+            pendingPolls = 0;
+            return true;
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package com.mdstech.opearator.cloudformation;
+
+import io.fabric8.kubernetes.client.ConfigBuilder;
+import io.fabric8.kubernetes.client.DefaultKubernetesClient;
+import io.fabric8.kubernetes.client.KubernetesClient;
+import io.javaoperatorsdk.operator.api.UpdateControl;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Throughput and latency distribution of StackController.createOrUpdateResource. The submit
+ * benchmark runs the full create path against the fake, the resync benchmark the path taken
+ * by the periodic resync of a stack that has not changed. Status writes are dropped, so no
+ * Kubernetes API server is involved, and each submit starts from a stack without status
+ * that the fake does not know. The lifecycle benchmark takes a wave of stacks through to
+ * completion: the stacks stay in progress for pollsToComplete observations, so the status
+ * poller and its backoff run, and every other wave submits the previous wave's stacks again,
+ * which now exist and are updated through a change set.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 10)
+@Fork(value = 1, jvmArgsAppend = {
+        "-DAWS_REGION=us-east-1",
+        "-DSTACK_EVENTS_ENABLED=false",
+        "-DSTACK_POLL_MIN_INTERVAL_SECONDS=1",
+        "-DSTACK_POLL_INTERVAL_SECONDS=4",
+        "-DAWS_CALLS_PER_SECOND=1000000",
+        "-DAWS_CALL_BURST=1000000",
+        "-Dlog4j.configurationFile=log4j2-benchmark.xml"})
+public class ReconcileBenchmark {
+
+    private static final int WAVE_SIZE = 100;
+    private static final int MAX_ROUNDS = 5;
+
+    @Param({"10", "1000", "10000", "100000"})
+    public int stackCount;
+
+    @Param({"0", "20"})
+    public long latencyMillis;
+
+    @Param({"0", "0.05"})
+    public double throttleRate;
+
+    @Param({"0", "3"})
+    public int pollsToComplete;
+
+    private final AtomicInteger next = new AtomicInteger();
+    private KubernetesClient kubernetesClient;
+    private FakeCloudFormation cloudFormation;
+    private StackController controller;
+    private Stack[] pending;
+    private Stack[] settled;
+    private Stack nextPending;
+    private Stack[] lifecycle;
+    private int waves;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        kubernetesClient = new DefaultKubernetesClient(new ConfigBuilder().withMasterUrl("http://127.0.0.1:1").build());
+        cloudFormation = new FakeCloudFormation(latencyMillis, throttleRate, pollsToComplete);
+        controller = new StackController(kubernetesClient, target -> cloudFormation, new StatusWriter(kubernetesClient, 0) {
+            @Override
+            public void observe(Stack stack) {
+            }
+
+            @Override
+            public void write(Stack stack) {
+            }
+        });
+        pending = new Stack[stackCount];
+        settled = new Stack[stackCount];
+        lifecycle = new Stack[stackCount];
+        String templateHash = SpecFingerprint.sha256(BenchmarkStacks.TEMPLATE);
+        for(int i = 0; i < stackCount; i++) {
+            pending[i] = BenchmarkStacks.newStack(i, 8, 4);
+            settled[i] = BenchmarkStacks.newStack(stackCount + i, 8, 4);
+            lifecycle[i] = BenchmarkStacks.newStack(2 * stackCount + i, 8, 4);
+            StackStatus status = new StackStatus();
+            status.setStatus("CREATED");
+            status.setSpecFingerprint(SpecFingerprint.compute(settled[i].getSpec(),
+                    settled[i].getSpec().getParameters(), templateHash, null));
+            settled[i].setStatus(status);
+        }
+    }
+
+    @Setup(Level.Invocation)
+    public void resetPending() {
+        // A stack still carrying the journal of its last submit would be resumed instead
+        nextPending = pending[Math.floorMod(next.getAndIncrement(), stackCount)];
+        nextPending.setStatus(null);
+        cloudFormation.forget(nextPending.getMetadata().getName());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        controller.getCompletionTracker().close();
+        kubernetesClient.close();
+    }
+
+    @Benchmark
+    public UpdateControl<Stack> submit() {
+        Stack stack = nextPending;
+        UpdateControl<Stack> updateControl = controller.createOrUpdateResource(stack, null);
+        controller.getCompletionTracker().eventSourceDeRegisteredForResource(stack.getMetadata().getUid());
+        return updateControl;
+    }
+
+    @Benchmark
+    public UpdateControl<Stack> resync() {
+        return controller.createOrUpdateResource(settled[Math.floorMod(next.getAndIncrement(), stackCount)], null);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @Warmup(iterations = 2)
+    @Measurement(iterations = 10)
+    public long lifecycle() throws InterruptedException {
+        int wave = waves++;
+        Stack[] stacks = new Stack[Math.min(WAVE_SIZE, stackCount)];
+        for(int i = 0; i < stacks.length; i++) {
+            stacks[i] = lifecycle[((wave / 2) * stacks.length + i) % stackCount];
+            // Without status the stack is submitted again, as a create or, once it exists, a change set
+            stacks[i].setStatus(null);
+        }
+        StackCompletionTracker tracker = controller.getCompletionTracker();
+        for(int round = 0; round < MAX_ROUNDS; round++) {
+            for(Stack stack : stacks) {
+                controller.createOrUpdateResource(stack, null);
+            }
+            if(Arrays.stream(stacks).noneMatch(stack -> tracker.isTracking(stack.getMetadata().getUid()))) {
+                break;
+            }
+            while(Arrays.stream(stacks).anyMatch(stack -> tracker.isTracking(stack.getMetadata().getUid()))) {
+                TimeUnit.MILLISECONDS.sleep(10);
+            }
+        }
+        return Arrays.stream(stacks)
+                .filter(stack -> "CREATED".equals(stack.getStatus().getStatus()) || "UPDATED".equals(stack.getStatus().getStatus()))
+                .count();
+    }
+}
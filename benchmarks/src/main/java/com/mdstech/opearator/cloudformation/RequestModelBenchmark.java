@@ -0,0 +1,92 @@
+package com.mdstech.opearator.cloudformation;
+
+import com.amazonaws.services.cloudformation.model.Tag;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of deciding that an unchanged stack is up to date. The rebuild benchmark resolves the
+ * template, copies the parameters and computes the fingerprint and request lists on every
+ * resync, as the controller did before request models were cached. The cached benchmark
+ * looks up the model of the current generation. Run with -prof gc to compare allocation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 10)
+@Fork(value = 1, jvmArgsAppend = "-Dlog4j.configurationFile=log4j2-benchmark.xml")
+public class RequestModelBenchmark {
+
+    private static final List<String> TERMINAL_STATUS_LIST =
+            Arrays.asList("UPDATE_COMPLETE", "CREATE_COMPLETE", "UPDATE_ROLLBACK_FAILED", "UPDATE_ROLLBACK_COMPLETE");
+    private static final StatusSet<?> TERMINAL_STATUS_SET = StatusSet.of(
+            com.amazonaws.services.cloudformation.model.StackStatus.UPDATE_COMPLETE,
+            com.amazonaws.services.cloudformation.model.StackStatus.CREATE_COMPLETE,
+            com.amazonaws.services.cloudformation.model.StackStatus.UPDATE_ROLLBACK_FAILED,
+            com.amazonaws.services.cloudformation.model.StackStatus.UPDATE_ROLLBACK_COMPLETE);
+
+    @Param({"1000", "10000"})
+    public int stackCount;
+
+    @Param({"8", "60"})
+    public int parameterCount;
+
+    private int next;
+    private Stack[] stacks;
+    private TemplateCache templateCache;
+    private List<Tag> defaultTags;
+    private List<String> defaultCapabilities;
+    private AwsTarget target;
+    private Map<String, StackRequestModel> requestModels;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        templateCache = new TemplateCache(1000, 64 * 1024 * 1024);
+        defaultTags = Arrays.asList(
+                new Tag().withKey("kubernetes.io/controlled-by").withValue("cloudformation.mdstechinc.com/operator"),
+                new Tag().withKey("team").withValue("platform"));
+        defaultCapabilities = Arrays.asList("CAPABILITY_IAM");
+        target = new AwsTarget("us-east-1", null);
+        stacks = new Stack[stackCount];
+        requestModels = new HashMap<>();
+        for(int i = 0; i < stackCount; i++) {
+            stacks[i] = BenchmarkStacks.newStack(i, parameterCount, 4);
+            requestModels.put(stacks[i].getMetadata().getUid(), build(stacks[i]));
+        }
+    }
+
+    @Benchmark
+    public String rebuild() {
+        Stack stack = stacks[next++ % stackCount];
+        return build(stack).getSpecFingerprint();
+    }
+
+    @Benchmark
+    public String cached() {
+        Stack stack = stacks[next++ % stackCount];
+        StackRequestModel request = requestModels.get(stack.getMetadata().getUid());
+        return request.isCurrent(stack, 0) ? request.getSpecFingerprint() : build(stack).getSpecFingerprint();
+    }
+
+    @Benchmark
+    public boolean terminalStatusList() {
+        return TERMINAL_STATUS_LIST.contains("UPDATE_ROLLBACK_COMPLETE");
+    }
+
+    @Benchmark
+    public boolean terminalStatusSet() {
+        return TERMINAL_STATUS_SET.contains("UPDATE_ROLLBACK_COMPLETE");
+    }
+
+    private StackRequestModel build(Stack stack) {
+        CachedTemplate template = templateCache.resolve(stack.getSpec());
+        Map<String, String> parameters = new HashMap<>(stack.getSpec().getParameters());
+        return StackRequestModel.build(stack, target, template, parameters, 0, defaultTags, defaultCapabilities);
+    }
+}
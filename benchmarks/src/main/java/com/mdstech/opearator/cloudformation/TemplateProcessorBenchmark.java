@@ -0,0 +1,74 @@
+package com.mdstech.opearator.cloudformation;
+
+import com.amazonaws.services.cloudformation.model.CreateStackResult;
+import com.amazonaws.services.cloudformation.model.Tag;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of building CloudFormation requests in TemplateProcessor from a prebuilt request
+ * model, and of the stack index scan and lookups behind the existence checks.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 10)
+@Fork(value = 1, jvmArgsAppend = "-Dlog4j.configurationFile=log4j2-benchmark.xml")
+public class TemplateProcessorBenchmark {
+
+    @Param({"10", "1000", "10000", "100000"})
+    public int stackCount;
+
+    @Param({"10", "60", "200"})
+    public int parameterCount;
+
+    private int next;
+    private FakeCloudFormation cloudFormation;
+    private StackIndex stackIndex;
+    private TemplateProcessor templateProcessor;
+    private StackRequestModel request;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        cloudFormation = new FakeCloudFormation(0, 0);
+        for(int i = 0; i < stackCount; i++) {
+            cloudFormation.seed("stack-" + i, i % 10 == 0 ? "UPDATE_ROLLBACK_COMPLETE" : "CREATE_COMPLETE");
+        }
+        stackIndex = new StackIndex(cloudFormation, TimeUnit.MINUTES.toMillis(5));
+        stackIndex.refresh();
+        List<Tag> defaultTags = Arrays.asList(
+                new Tag().withKey("kubernetes.io/controlled-by").withValue("cloudformation.mdstechinc.com/operator"),
+                new Tag().withKey("team").withValue("platform"));
+        templateProcessor = new TemplateProcessor(cloudFormation, stackIndex);
+        Stack stack = BenchmarkStacks.newStack(0, parameterCount, Math.min(parameterCount, 50));
+        request = StackRequestModel.build(stack, new AwsTarget("us-east-1", null),
+                new CachedTemplate(SpecFingerprint.sha256(BenchmarkStacks.TEMPLATE), BenchmarkStacks.TEMPLATE, null),
+                stack.getSpec().getParameters(), 0, defaultTags, Arrays.asList("CAPABILITY_IAM"));
+    }
+
+    @Benchmark
+    public CreateStackResult createStack() {
+        // Creating an existing stack fails, so every create goes to a stack the fake has forgotten
+        String stackName = "new-stack-" + (next++ % stackCount);
+        cloudFormation.forget(stackName);
+        return templateProcessor.createStack(stackName, request);
+    }
+
+    @Benchmark
+    public boolean isCreatedOrUpdatedStackExist() {
+        return templateProcessor.isCreatedOrUpdatedStackExist("stack-" + (next++ % stackCount));
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @Warmup(iterations = 5)
+    @Measurement(iterations = 20)
+    public StackIndex refreshStackIndex() {
+        stackIndex.refresh();
+        return stackIndex;
+    }
+}
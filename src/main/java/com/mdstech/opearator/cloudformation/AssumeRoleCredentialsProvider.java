@@ -0,0 +1,137 @@
+package com.mdstech.opearator.cloudformation;
+
+import com.amazonaws.SdkClientException;
+import com.amazonaws.auth.AWSCredentials;
+import com.amazonaws.auth.AWSCredentialsProvider;
+import com.amazonaws.auth.BasicSessionCredentials;
+import com.amazonaws.services.securitytoken.AWSSecurityTokenService;
+import com.amazonaws.services.securitytoken.model.AssumeRoleRequest;
+import com.amazonaws.services.securitytoken.model.Credentials;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Assumed role credentials that are renewed on a background scheduler well before they
+ * expire, so callers never wait on STS.
+ */
+public class AssumeRoleCredentialsProvider implements AWSCredentialsProvider {
+
+    private static final Logger log = LoggerFactory.getLogger(AssumeRoleCredentialsProvider.class);
+    private static final long REFRESH_MARGIN_MILLIS = TimeUnit.MINUTES.toMillis(5);
+    private static final long RETRY_DELAY_MILLIS = TimeUnit.SECONDS.toMillis(30);
+    private static final long INLINE_RETRY_DELAY_MILLIS = TimeUnit.SECONDS.toMillis(1);
+
+    private final AWSSecurityTokenService stsClient;
+    private final String roleArn;
+    private final String roleSessionName;
+    private final ScheduledExecutorService refresher;
+    private final AtomicLong refreshes;
+    private final AtomicLong refreshFailures;
+    private final OperatorMetrics metrics;
+    private volatile Credentials credentials;
+    private ScheduledFuture<?> scheduled;
+    private long lastInlineAttemptAt;
+
+    public AssumeRoleCredentialsProvider(AWSSecurityTokenService stsClient,
+                                         String roleArn,
+                                         String roleSessionName,
+                                         ScheduledExecutorService refresher,
+                                         AtomicLong refreshes,
+                                         AtomicLong refreshFailures,
+                                         OperatorMetrics metrics) {
+        this.stsClient = stsClient;
+        this.roleArn = roleArn;
+        this.roleSessionName = roleSessionName;
+        this.refresher = refresher;
+        this.refreshes = refreshes;
+        this.refreshFailures = refreshFailures;
+        this.metrics = metrics;
+        refresh();
+    }
+
+    @Override
+    public AWSCredentials getCredentials() {
+        Credentials current = credentials;
+        if(isExpired(current)) {
+            current = refreshInline();
+        }
+        return new BasicSessionCredentials(current.getAccessKeyId(), current.getSecretAccessKey(), current.getSessionToken());
+    }
+
+    /**
+     * Renews expired credentials for a caller that cannot wait for the background refresh.
+     * The background schedule is left alone, and while STS keeps failing at most one caller
+     * per second tries again; the others fail fast instead of using expired credentials.
+     */
+    private synchronized Credentials refreshInline() {
+        if(!isExpired(credentials)) {
+            return credentials;
+        }
+        long now = System.currentTimeMillis();
+        if(now - lastInlineAttemptAt < INLINE_RETRY_DELAY_MILLIS) {
+            throw new SdkClientException("Credentials for " + roleArn + " expired and could not be renewed");
+        }
+        lastInlineAttemptAt = now;
+        log.warn("Credentials for {} expired before background refresh, refreshing inline", roleArn);
+        try {
+            assumeRole();
+        }
+        catch (RuntimeException ex) {
+            throw new SdkClientException("Credentials for " + roleArn + " expired and could not be renewed", ex);
+        }
+        return credentials;
+    }
+
+    @Override
+    public void refresh() {
+        long delay;
+        try {
+            assumeRole();
+            delay = Math.max(credentials.getExpiration().getTime() - System.currentTimeMillis() - REFRESH_MARGIN_MILLIS,
+                    RETRY_DELAY_MILLIS);
+            log.info("Assumed role {}, next refresh in {} seconds", roleArn, TimeUnit.MILLISECONDS.toSeconds(delay));
+        }
+        catch (RuntimeException ex) {
+            if(credentials == null) {
+                throw ex;
+            }
+            log.error("Unable to refresh credentials for {}, retrying", roleArn, ex);
+            delay = RETRY_DELAY_MILLIS;
+        }
+        scheduleRefresh(delay);
+    }
+
+    private synchronized void scheduleRefresh(long delayMillis) {
+        // One pending refresh per provider, however often refresh() is called
+        if(scheduled != null) {
+            scheduled.cancel(false);
+        }
+        scheduled = refresher.schedule(this::refresh, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private synchronized void assumeRole() {
+        long startedAt = System.nanoTime();
+        try {
+            credentials = stsClient.assumeRole(new AssumeRoleRequest()
+                            .withRoleArn(roleArn)
+                            .withRoleSessionName(roleSessionName))
+                    .getCredentials();
+            metrics.stsCall("AssumeRole", startedAt, false);
+            refreshes.incrementAndGet();
+        }
+        catch (RuntimeException ex) {
+            metrics.stsCall("AssumeRole", startedAt, true);
+            refreshFailures.incrementAndGet();
+            throw ex;
+        }
+    }
+
+    private static boolean isExpired(Credentials current) {
+        return current.getExpiration().getTime() <= System.currentTimeMillis();
+    }
+}
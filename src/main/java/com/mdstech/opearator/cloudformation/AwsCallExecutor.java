@@ -0,0 +1,190 @@
+package com.mdstech.opearator.cloudformation;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.AmazonServiceException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs every AWS call on a fixed size worker pool or, in virtual thread mode, directly on
+ * the calling thread bounded by a semaphore, behind a token bucket per account and region.
+ * Virtual thread mode expects the callers to be virtual threads themselves (see
+ * {@link CallerThreads}), so a blocked call never pins a platform thread. Each account and
+ * region also gets a bulkhead capping its share of the concurrent calls, taken before a
+ * call is queued, so a throttled or slow target cannot occupy every worker. Throttled and transient
+ * failures are retried with full jitter exponential backoff.
+ */
+public class AwsCallExecutor {
+
+    private static final Logger log = LoggerFactory.getLogger(AwsCallExecutor.class);
+    private static final List<String> THROTTLING_ERROR_CODES = Arrays.asList(
+            "Throttling", "ThrottlingException", "ThrottledException", "RequestLimitExceeded",
+            "TooManyRequestsException", "RequestThrottled", "RequestThrottledException");
+    private static final long BASE_BACKOFF_MILLIS = 100;
+    private static final long MAX_BACKOFF_MILLIS = TimeUnit.SECONDS.toMillis(20);
+
+    private final ExecutorService workers;
+    private final Semaphore concurrency;
+    private final int maxConcurrency;
+    private final OperatorMetrics metrics;
+    private final Map<String, TokenBucket> rateLimiters = new ConcurrentHashMap<>();
+    private final Map<String, Semaphore> bulkheads = new ConcurrentHashMap<>();
+    private final int maxConcurrencyPerTarget;
+    private final double callsPerSecond;
+    private final int burst;
+    private final int maxRetries;
+
+    public AwsCallExecutor(int workerThreads, double callsPerSecond, int burst, int maxRetries, OperatorMetrics metrics) {
+        this(workerThreads, false, callsPerSecond, burst, maxRetries, metrics);
+    }
+
+    public AwsCallExecutor(int maxConcurrentCalls, boolean virtualThreads, double callsPerSecond, int burst,
+                           int maxRetries, OperatorMetrics metrics) {
+        this(maxConcurrentCalls, maxConcurrentCalls, virtualThreads, callsPerSecond, burst, maxRetries, metrics);
+    }
+
+    public AwsCallExecutor(int maxConcurrentCalls, int maxConcurrentCallsPerTarget, boolean virtualThreads,
+                           double callsPerSecond, int burst, int maxRetries, OperatorMetrics metrics) {
+        if(virtualThreads) {
+            this.workers = null;
+            this.concurrency = new Semaphore(maxConcurrentCalls, true);
+        }
+        else {
+            AtomicInteger threadCount = new AtomicInteger();
+            this.workers = new ThreadPoolExecutor(maxConcurrentCalls, maxConcurrentCalls, 0L, TimeUnit.MILLISECONDS,
+                    new LinkedBlockingQueue<>(), runnable -> {
+                Thread thread = new Thread(runnable, "aws-worker-" + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+            this.concurrency = null;
+        }
+        this.maxConcurrency = maxConcurrentCalls;
+        this.maxConcurrencyPerTarget = Math.max(1, Math.min(maxConcurrentCallsPerTarget, maxConcurrentCalls));
+        this.metrics = metrics;
+        this.callsPerSecond = callsPerSecond;
+        this.burst = burst;
+        this.maxRetries = maxRetries;
+    }
+
+    public <T> T call(AwsTarget target, String api, Callable<T> call) throws Exception {
+        String targetKey = targetKey(target);
+        TokenBucket rateLimiter = rateLimiters.computeIfAbsent(targetKey, key -> new TokenBucket(callsPerSecond, burst));
+        Semaphore bulkhead = bulkheads.computeIfAbsent(targetKey, key -> new Semaphore(maxConcurrencyPerTarget, true));
+        for(int attempt = 0; ; attempt++) {
+            Throwable cause;
+            bulkhead.acquire();
+            try {
+                if(workers == null) {
+                    return invoke(api, rateLimiter, call);
+                }
+                return workers.submit(() -> invoke(api, rateLimiter, call)).get();
+            }
+            catch (ExecutionException ex) {
+                cause = ex.getCause();
+                if(attempt >= maxRetries || !isRetryable(cause)) {
+                    if(cause instanceof Exception) {
+                        throw (Exception) cause;
+                    }
+                    throw ex;
+                }
+            }
+            catch (Exception ex) {
+                cause = ex;
+                if(attempt >= maxRetries || !isRetryable(cause)) {
+                    throw ex;
+                }
+            }
+            finally {
+                bulkhead.release();
+            }
+            long backoff = ThreadLocalRandom.current().nextLong(
+                    Math.min(MAX_BACKOFF_MILLIS, BASE_BACKOFF_MILLIS << Math.min(attempt, 20)) + 1);
+            log.warn("{} on {} failed with {}, retrying in {} ms (attempt {} of {})",
+                    api, target, cause.getMessage(), backoff, attempt + 1, maxRetries);
+            TimeUnit.MILLISECONDS.sleep(backoff);
+        }
+    }
+
+    private <T> T invoke(String api, TokenBucket rateLimiter, Callable<T> call) throws Exception {
+        if(concurrency != null) {
+            concurrency.acquire();
+        }
+        try {
+            rateLimiter.acquire();
+            long startedAt = System.nanoTime();
+            boolean failed = true;
+            try {
+                T result = call.call();
+                failed = false;
+                return result;
+            }
+            finally {
+                metrics.cloudFormationCall(api, startedAt, failed);
+            }
+        }
+        finally {
+            if(concurrency != null) {
+                concurrency.release();
+            }
+        }
+    }
+
+    private static String targetKey(AwsTarget target) {
+        return target.getAccountId() + "/" + target.getRegion();
+    }
+
+    static boolean isThrottling(Throwable cause) {
+        if(!(cause instanceof AmazonServiceException)) {
+            return false;
+        }
+        AmazonServiceException ex = (AmazonServiceException) cause;
+        return ex.getStatusCode() == 429 || THROTTLING_ERROR_CODES.contains(ex.getErrorCode());
+    }
+
+    private boolean isRetryable(Throwable cause) {
+        if(isThrottling(cause)) {
+            return true;
+        }
+        if(cause instanceof AmazonServiceException) {
+            return ((AmazonServiceException) cause).getStatusCode() >= 500;
+        }
+        return cause instanceof AmazonClientException && ((AmazonClientException) cause).isRetryable();
+    }
+
+    public int getQueueDepth() {
+        if(concurrency != null) {
+            return concurrency.getQueueLength();
+        }
+        return ((ThreadPoolExecutor) workers).getQueue().size();
+    }
+
+    public int getInFlight(AwsTarget target) {
+        Semaphore bulkhead = bulkheads.get(targetKey(target));
+        return bulkhead == null ? 0 : maxConcurrencyPerTarget - bulkhead.availablePermits();
+    }
+
+    public int getMaxConcurrency() {
+        return maxConcurrency;
+    }
+
+    public void close() {
+        if(workers != null) {
+            workers.shutdownNow();
+        }
+    }
+}
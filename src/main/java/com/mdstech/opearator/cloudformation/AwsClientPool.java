@@ -0,0 +1,158 @@
+package com.mdstech.opearator.cloudformation;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.AmazonWebServiceResult;
+import com.amazonaws.ClientConfiguration;
+import com.amazonaws.auth.AWSCredentialsProvider;
+import com.amazonaws.auth.WebIdentityTokenCredentialsProvider;
+import com.amazonaws.services.cloudformation.AmazonCloudFormation;
+import com.amazonaws.services.cloudformation.AmazonCloudFormationClientBuilder;
+import com.amazonaws.services.securitytoken.AWSSecurityTokenService;
+import com.amazonaws.services.securitytoken.AWSSecurityTokenServiceClientBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Caches one CloudFormation client, and with it one HTTP connection pool, per region and
+ * assumed role. Assumed role credentials are refreshed in the background, and every API
+ * call made through a pooled client goes through the {@link AwsCallExecutor}.
+ */
+public class AwsClientPool {
+
+    private static final Logger log = LoggerFactory.getLogger(AwsClientPool.class);
+
+    private final Map<AwsTarget, AmazonCloudFormation> cloudFormationClients = new ConcurrentHashMap<>();
+    private final Map<String, AWSSecurityTokenService> stsClients = new ConcurrentHashMap<>();
+    private final String roleSessionName;
+    private final AwsCallExecutor callExecutor;
+    private final OperatorMetrics metrics;
+    private final Function<AwsTarget, AmazonCloudFormation> clientFactory;
+    private final ScheduledExecutorService refresher;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong refreshes = new AtomicLong();
+    private final AtomicLong refreshFailures = new AtomicLong();
+
+    public AwsClientPool(String roleSessionName, AwsCallExecutor callExecutor, OperatorMetrics metrics) {
+        this(roleSessionName, callExecutor, metrics, null);
+    }
+
+    AwsClientPool(String roleSessionName, AwsCallExecutor callExecutor, OperatorMetrics metrics,
+                  Function<AwsTarget, AmazonCloudFormation> clientFactory) {
+        this.roleSessionName = roleSessionName;
+        this.callExecutor = callExecutor;
+        this.metrics = metrics;
+        this.clientFactory = clientFactory;
+        this.refresher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "aws-credentials-refresher");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public AmazonCloudFormation getCloudFormation(AwsTarget target) {
+        AmazonCloudFormation amazonCloudFormation = cloudFormationClients.get(target);
+        if(amazonCloudFormation != null) {
+            hits.incrementAndGet();
+            return amazonCloudFormation;
+        }
+        return cloudFormationClients.computeIfAbsent(target, this::createCloudFormation);
+    }
+
+    private AmazonCloudFormation createCloudFormation(AwsTarget target) {
+        misses.incrementAndGet();
+        return rateLimited(target, clientFactory == null ? buildCloudFormation(target) : clientFactory.apply(target));
+    }
+
+    private AmazonCloudFormation buildCloudFormation(AwsTarget target) {
+        AWSCredentialsProvider credentialsProvider;
+        if(target.getRoleArn() != null) {
+            log.info("Establishing AWS session for {} by using role assume role", target);
+            credentialsProvider = new AssumeRoleCredentialsProvider(
+                    stsClients.computeIfAbsent(target.getRegion(),
+                            region -> AWSSecurityTokenServiceClientBuilder.standard().withRegion(region).build()),
+                    target.getRoleArn(),
+                    roleSessionName,
+                    refresher,
+                    refreshes,
+                    refreshFailures,
+                    metrics);
+        }
+        else {
+            log.info("Establishing AWS session for {} using Service account role", target);
+            credentialsProvider = WebIdentityTokenCredentialsProvider.create();
+        }
+        return AmazonCloudFormationClientBuilder
+                .standard()
+                .withClientConfiguration(new ClientConfiguration()
+                        .withMaxErrorRetry(0)
+                        .withMaxConnections(Math.max(ClientConfiguration.DEFAULT_MAX_CONNECTIONS, callExecutor.getMaxConcurrency())))
+                .withCredentials(credentialsProvider)
+                .withRegion(target.getRegion())
+                .build();
+    }
+
+    private AmazonCloudFormation rateLimited(AwsTarget target, AmazonCloudFormation amazonCloudFormation) {
+        return (AmazonCloudFormation) Proxy.newProxyInstance(
+                AmazonCloudFormation.class.getClassLoader(),
+                new Class<?>[] {AmazonCloudFormation.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "equals":
+                            return proxy == args[0];
+                        case "hashCode":
+                            return System.identityHashCode(proxy);
+                        default:
+                            break;
+                    }
+                    if(!AmazonWebServiceResult.class.isAssignableFrom(method.getReturnType())) {
+                        return invoke(amazonCloudFormation, method, args);
+                    }
+                    try {
+                        return callExecutor.call(target, method.getName(), () -> invoke(amazonCloudFormation, method, args));
+                    }
+                    catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                        throw new AmazonClientException("Interrupted while calling " + method.getName(), ex);
+                    }
+                });
+    }
+
+    private static Object invoke(AmazonCloudFormation amazonCloudFormation, Method method, Object[] args) throws Exception {
+        try {
+            return method.invoke(amazonCloudFormation, args);
+        }
+        catch (InvocationTargetException ex) {
+            if(ex.getCause() instanceof Exception) {
+                throw (Exception) ex.getCause();
+            }
+            throw ex;
+        }
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getRefreshes() {
+        return refreshes.get();
+    }
+
+    public long getRefreshFailures() {
+        return refreshFailures.get();
+    }
+}
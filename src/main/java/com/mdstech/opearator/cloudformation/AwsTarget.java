@@ -0,0 +1,50 @@
+package com.mdstech.opearator.cloudformation;
+
+import java.util.Objects;
+
+public class AwsTarget {
+
+    private final String region;
+    private final String roleArn;
+
+    public AwsTarget(String region, String roleArn) {
+        this.region = region;
+        this.roleArn = roleArn;
+    }
+
+    public String getRegion() {
+        return region;
+    }
+
+    public String getRoleArn() {
+        return roleArn;
+    }
+
+    public String getAccountId() {
+        if(roleArn != null) {
+            String[] arn = roleArn.split(":");
+            if(arn.length > 4 && !arn[4].isEmpty()) {
+                return arn[4];
+            }
+        }
+        return "default";
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        AwsTarget awsTarget = (AwsTarget) o;
+        return Objects.equals(region, awsTarget.region) && Objects.equals(roleArn, awsTarget.roleArn);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(region, roleArn);
+    }
+
+    @Override
+    public String toString() {
+        return roleArn == null ? region : region + "/" + roleArn;
+    }
+}
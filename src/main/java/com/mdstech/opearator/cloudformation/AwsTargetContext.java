@@ -0,0 +1,37 @@
+package com.mdstech.opearator.cloudformation;
+
+import com.amazonaws.services.cloudformation.AmazonCloudFormation;
+
+/**
+ * Everything the operator keeps per account and region: the pooled CloudFormation client,
+ * which carries the rate limiter and bulkhead of the target, and the stack index.
+ */
+public class AwsTargetContext {
+
+    private final AwsTarget target;
+    private final AmazonCloudFormation amazonCloudFormation;
+    private final StackIndex stackIndex;
+
+    public AwsTargetContext(AwsTarget target, AmazonCloudFormation amazonCloudFormation, long stackIndexMaxAgeMillis) {
+        this.target = target;
+        this.amazonCloudFormation = amazonCloudFormation;
+        this.stackIndex = new StackIndex(amazonCloudFormation, stackIndexMaxAgeMillis);
+    }
+
+    public AwsTarget getTarget() {
+        return target;
+    }
+
+    public AmazonCloudFormation getAmazonCloudFormation() {
+        return amazonCloudFormation;
+    }
+
+    public StackIndex getStackIndex() {
+        return stackIndex;
+    }
+
+    @Override
+    public String toString() {
+        return target.toString();
+    }
+}
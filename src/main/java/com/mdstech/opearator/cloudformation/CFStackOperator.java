@@ -1,12 +1,17 @@
 package com.mdstech.opearator.cloudformation;
 
+import io.fabric8.kubernetes.api.model.ObjectMetaBuilder;
 import io.fabric8.kubernetes.client.Config;
 import io.fabric8.kubernetes.client.ConfigBuilder;
 import io.fabric8.kubernetes.client.DefaultKubernetesClient;
 import io.fabric8.kubernetes.client.KubernetesClient;
+import io.fabric8.kubernetes.client.utils.Serialization;
 import io.javaoperatorsdk.operator.Operator;
 import io.javaoperatorsdk.operator.config.runtime.DefaultConfigurationService;
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.takes.facets.fork.FkRegex;
@@ -16,6 +21,7 @@ import org.takes.http.FtBasic;
 
 public class CFStackOperator {
     private static final Logger log = LoggerFactory.getLogger(CFStackOperator.class);
+    private static final String CDS_TRAINING = "--cds-training";
 
     public static void main(String[] args) throws IOException {
         log.info("CF Operator starting");
@@ -23,10 +29,48 @@ public class CFStackOperator {
             log.error("Missing region environment variables");
             System.exit(1);
         }
+        if(Arrays.asList(args).contains(CDS_TRAINING)) {
+            train();
+            System.exit(0);
+        }
         Config config = new ConfigBuilder().withNamespace(null).build();
         KubernetesClient client = new DefaultKubernetesClient(config);
         Operator operator = new Operator(client, DefaultConfigurationService.instance());
-        operator.register(new StackController());
-        new FtBasic(new TkFork(new FkRegex("/health", "Listening on 8080")), 8080).start(Exit.NEVER);
+        StackController controller = new StackController(client);
+        controller.warmUp();
+        operator.register(controller);
+        controller.getShardCoordinator().ifPresent(coordinator ->
+                Runtime.getRuntime().addShutdownHook(new Thread(coordinator::stop, "shard-coordinator-shutdown")));
+        new FtBasic(new TkFork(
+                new FkRegex("/health", new TkHealth(controller::isReady)),
+                new FkRegex("/live", "Alive"),
+                new FkRegex("/metrics", new TkMetrics(controller.getMetrics()))), 8080).start(Exit.NEVER);
+    }
+
+    /**
+     * Exercises the startup path without a cluster or AWS account, so the class data sharing
+     * archive recorded during the image build covers the classes a real start loads.
+     */
+    private static void train() throws IOException {
+        log.info("Running class data sharing training");
+        Config config = new ConfigBuilder().withNamespace(null).withMasterUrl("https://127.0.0.1:1").build();
+        try (KubernetesClient client = new DefaultKubernetesClient(config)) {
+            new Operator(client, DefaultConfigurationService.instance());
+            StackController controller = new StackController(client);
+            controller.warmUp().get(30, TimeUnit.SECONDS);
+            Stack stack = new Stack();
+            stack.setMetadata(new ObjectMetaBuilder().withName("training").withNamespace("default").build());
+            StackSpec spec = new StackSpec();
+            spec.setTemplate("AWSTemplateFormatVersion: '2010-09-09'");
+            spec.setParameters(Collections.singletonMap("Key", "Value"));
+            stack.setSpec(spec);
+            stack.setStatus(new StackStatus());
+            Serialization.unmarshal(Serialization.asJson(stack), Stack.class);
+            new TkMetrics(controller.getMetrics()).act(null).body().close();
+            new TkHealth(controller::isReady).act(null).body().close();
+        }
+        catch (Exception ex) {
+            log.warn("Class data sharing training did not finish cleanly", ex);
+        }
     }
 }
@@ -0,0 +1,45 @@
+package com.mdstech.opearator.cloudformation;
+
+public class CachedTemplate {
+
+    private final String hash;
+    private final String body;
+    private final String url;
+    private volatile boolean validated;
+    private volatile String validationError;
+
+    public CachedTemplate(String hash, String body, String url) {
+        this.hash = hash;
+        this.body = body;
+        this.url = url;
+    }
+
+    public String getHash() {
+        return hash;
+    }
+
+    public String getBody() {
+        return body;
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    public boolean isValidated() {
+        return validated;
+    }
+
+    public String getValidationError() {
+        return validationError;
+    }
+
+    public void setValidationResult(String validationError) {
+        this.validationError = validationError;
+        this.validated = true;
+    }
+
+    public long size() {
+        return body == null ? url.length() : body.length();
+    }
+}
@@ -0,0 +1,34 @@
+package com.mdstech.opearator.cloudformation;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Threads of the background work that calls AWS. In virtual thread mode these are virtual
+ * threads and make their AWS calls directly; otherwise they are daemon platform threads
+ * whose calls run on the worker pool of {@link AwsCallExecutor}.
+ */
+public final class CallerThreads {
+
+    private CallerThreads() {
+    }
+
+    public static ThreadFactory factory(String prefix, boolean virtualThreads) {
+        if(virtualThreads) {
+            return Thread.ofVirtual().name(prefix, 1).factory();
+        }
+        return Thread.ofPlatform().name(prefix, 1).daemon().factory();
+    }
+
+    /**
+     * A thread per task in virtual thread mode, otherwise a pool of at most the given number
+     * of platform threads.
+     */
+    public static ExecutorService pool(String prefix, int threads, boolean virtualThreads) {
+        if(virtualThreads) {
+            return Executors.newThreadPerTaskExecutor(factory(prefix, true));
+        }
+        return Executors.newFixedThreadPool(threads, factory(prefix, false));
+    }
+}
@@ -0,0 +1,238 @@
+package com.mdstech.opearator.cloudformation;
+
+import com.amazonaws.services.cloudformation.AmazonCloudFormation;
+import com.amazonaws.services.cloudformation.model.DescribeStackDriftDetectionStatusRequest;
+import com.amazonaws.services.cloudformation.model.DescribeStackDriftDetectionStatusResult;
+import com.amazonaws.services.cloudformation.model.DetectStackDriftRequest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Comparator;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * Periodically runs CloudFormation drift detection over the settled stacks. Detections are
+ * started in parallel up to a concurrency cap and their status is polled on later sweeps, so
+ * no thread waits on a detection. The last result of every stack is cached and only stacks
+ * whose result is older than the staleness limit are checked again.
+ */
+public class DriftDetector {
+
+    private static final Logger log = LoggerFactory.getLogger(DriftDetector.class);
+    private static final long DETECTION_TIMEOUT_MILLIS = TimeUnit.MINUTES.toMillis(15);
+
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private final long staleAfterMillis;
+    private final Semaphore detections;
+    private final Predicate<String> eligible;
+    private final Consumer<String> onResult;
+    private final ScheduledExecutorService scheduler;
+    private final ExecutorService workers;
+
+    public DriftDetector(long sweepIntervalMillis,
+                         long staleAfterMillis,
+                         int maxConcurrentDetections,
+                         boolean virtualThreads,
+                         Predicate<String> eligible,
+                         Consumer<String> onResult) {
+        this.staleAfterMillis = staleAfterMillis;
+        this.detections = new Semaphore(maxConcurrentDetections);
+        this.eligible = eligible;
+        this.onResult = onResult;
+        this.workers = CallerThreads.pool("drift-detector-", maxConcurrentDetections, virtualThreads);
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "drift-sweep");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.scheduler.scheduleWithFixedDelay(this::sweep, sweepIntervalMillis, sweepIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public void watch(String resourceUid, String stackName, AmazonCloudFormation amazonCloudFormation) {
+        entries.computeIfAbsent(resourceUid, uid -> new Entry(stackName, amazonCloudFormation));
+    }
+
+    public void invalidate(String resourceUid) {
+        Entry entry = entries.get(resourceUid);
+        if(entry != null) {
+            entry.checkedAt = 0;
+            // The verdict was about the stack before this change
+            entry.result = null;
+        }
+    }
+
+    public void forget(String resourceUid) {
+        Entry entry = entries.remove(resourceUid);
+        if(entry != null) {
+            releasePermit(entry);
+        }
+    }
+
+    public Optional<DriftResult> getResult(String resourceUid) {
+        Entry entry = entries.get(resourceUid);
+        return entry == null ? Optional.empty() : Optional.ofNullable(entry.result);
+    }
+
+    void sweep() {
+        try {
+            long now = System.currentTimeMillis();
+            entries.entrySet().stream()
+                    .filter(entry -> entry.getValue().detectionId != null && !entry.getValue().busy)
+                    .forEach(entry -> submit(entry.getKey(), entry.getValue(), () -> poll(entry.getKey(), entry.getValue())));
+            entries.entrySet().stream()
+                    .filter(entry -> entry.getValue().detectionId == null && !entry.getValue().busy)
+                    .filter(entry -> now - entry.getValue().checkedAt >= staleAfterMillis)
+                    .filter(entry -> eligible.test(entry.getKey()))
+                    .sorted(Comparator.comparingLong(entry -> entry.getValue().checkedAt))
+                    .forEach(entry -> {
+                        if(detections.tryAcquire()) {
+                            entry.getValue().holdsPermit.set(true);
+                            // Forgotten since the sweep started, forget() may have missed the permit
+                            if(entries.get(entry.getKey()) != entry.getValue() ||
+                                    !submit(entry.getKey(), entry.getValue(), () -> detect(entry.getValue()))) {
+                                releasePermit(entry.getValue());
+                            }
+                        }
+                    });
+        }
+        catch (RuntimeException ex) {
+            log.warn("Drift sweep failed", ex);
+        }
+    }
+
+    private boolean submit(String resourceUid, Entry entry, Runnable task) {
+        synchronized (entry) {
+            if(entry.busy) {
+                return false;
+            }
+            entry.busy = true;
+        }
+        workers.execute(() -> {
+            try {
+                task.run();
+            }
+            catch (RuntimeException ex) {
+                log.warn("Drift detection of stack {} ({}) failed", entry.stackName, resourceUid, ex);
+                if(entry.detectionId == null) {
+                    entry.checkedAt = System.currentTimeMillis();
+                    releasePermit(entry);
+                }
+                else if(System.currentTimeMillis() - entry.detectionStartedAt > DETECTION_TIMEOUT_MILLIS) {
+                    finish(resourceUid, entry, new DriftResult("UNKNOWN", null, System.currentTimeMillis()));
+                }
+            }
+            finally {
+                entry.busy = false;
+            }
+        });
+        return true;
+    }
+
+    private void detect(Entry entry) {
+        entry.detectionStartedAt = System.currentTimeMillis();
+        entry.detectionId = entry.amazonCloudFormation
+                .detectStackDrift(new DetectStackDriftRequest().withStackName(entry.stackName))
+                .getStackDriftDetectionId();
+        log.debug("Started drift detection {} for stack {}", entry.detectionId, entry.stackName);
+    }
+
+    private void poll(String resourceUid, Entry entry) {
+        DescribeStackDriftDetectionStatusResult result = entry.amazonCloudFormation.describeStackDriftDetectionStatus(
+                new DescribeStackDriftDetectionStatusRequest().withStackDriftDetectionId(entry.detectionId));
+        if("DETECTION_IN_PROGRESS".equals(result.getDetectionStatus())) {
+            return;
+        }
+        String driftStatus = "DETECTION_FAILED".equals(result.getDetectionStatus()) ? "UNKNOWN" : result.getStackDriftStatus();
+        if("DETECTION_FAILED".equals(result.getDetectionStatus())) {
+            log.warn("Drift detection of stack {} failed: {}", entry.stackName, result.getDetectionStatusReason());
+        }
+        finish(resourceUid, entry, new DriftResult(driftStatus, result.getDriftedStackResourceCount(),
+                result.getTimestamp() == null ? System.currentTimeMillis() : result.getTimestamp().getTime()));
+    }
+
+    private void finish(String resourceUid, Entry entry, DriftResult result) {
+        entry.detectionId = null;
+        entry.checkedAt = System.currentTimeMillis();
+        releasePermit(entry);
+        entry.result = result;
+        log.info("Stack {} drift status {} with {} drifted resources", entry.stackName, result.getStatus(), result.getDriftedResources());
+        onResult.accept(resourceUid);
+    }
+
+    /**
+     * Returns the permit of a detection exactly once, whichever of finish, failure or
+     * forget gets there first.
+     */
+    private void releasePermit(Entry entry) {
+        if(entry.holdsPermit.compareAndSet(true, false)) {
+            detections.release();
+        }
+    }
+
+    int getAvailablePermits() {
+        return detections.availablePermits();
+    }
+
+    public int getWatchedCount() {
+        return entries.size();
+    }
+
+    public long getDriftedCount() {
+        return entries.values().stream().filter(entry -> entry.result != null && "DRIFTED".equals(entry.result.getStatus())).count();
+    }
+
+    public void close() {
+        scheduler.shutdownNow();
+        workers.shutdownNow();
+    }
+
+    public static class DriftResult {
+        private final String status;
+        private final Integer driftedResources;
+        private final long checkedAt;
+
+        DriftResult(String status, Integer driftedResources, long checkedAt) {
+            this.status = status;
+            this.driftedResources = driftedResources;
+            this.checkedAt = checkedAt;
+        }
+
+        public String getStatus() {
+            return status;
+        }
+
+        public Integer getDriftedResources() {
+            return driftedResources;
+        }
+
+        public long getCheckedAt() {
+            return checkedAt;
+        }
+    }
+
+    private static class Entry {
+        private final String stackName;
+        private final AmazonCloudFormation amazonCloudFormation;
+        private volatile String detectionId;
+        private volatile long detectionStartedAt;
+        private volatile long checkedAt;
+        private volatile boolean busy;
+        private volatile DriftResult result;
+        private final AtomicBoolean holdsPermit = new AtomicBoolean();
+
+        private Entry(String stackName, AmazonCloudFormation amazonCloudFormation) {
+            this.stackName = stackName;
+            this.amazonCloudFormation = amazonCloudFormation;
+        }
+    }
+}
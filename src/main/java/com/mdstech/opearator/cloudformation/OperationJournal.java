@@ -0,0 +1,89 @@
+package com.mdstech.opearator.cloudformation;
+
+/**
+ * Operation submitted to CloudFormation and not yet observed to finish, persisted in the
+ * Stack status so a restarted operator resumes tracking it instead of submitting again.
+ */
+public class OperationJournal {
+    private String operation;
+    private String stackID;
+    private String changeSetId;
+    private Long generation;
+    private long submittedAt;
+    private String specFingerprint;
+    private String eventCursor;
+    private String region;
+    private String assumeRoleARN;
+
+    public String getOperation() {
+        return operation;
+    }
+
+    public void setOperation(String operation) {
+        this.operation = operation;
+    }
+
+    public String getStackID() {
+        return stackID;
+    }
+
+    public void setStackID(String stackID) {
+        this.stackID = stackID;
+    }
+
+    public String getChangeSetId() {
+        return changeSetId;
+    }
+
+    public void setChangeSetId(String changeSetId) {
+        this.changeSetId = changeSetId;
+    }
+
+    public Long getGeneration() {
+        return generation;
+    }
+
+    public void setGeneration(Long generation) {
+        this.generation = generation;
+    }
+
+    public long getSubmittedAt() {
+        return submittedAt;
+    }
+
+    public void setSubmittedAt(long submittedAt) {
+        this.submittedAt = submittedAt;
+    }
+
+    public String getSpecFingerprint() {
+        return specFingerprint;
+    }
+
+    public void setSpecFingerprint(String specFingerprint) {
+        this.specFingerprint = specFingerprint;
+    }
+
+    public String getEventCursor() {
+        return eventCursor;
+    }
+
+    public void setEventCursor(String eventCursor) {
+        this.eventCursor = eventCursor;
+    }
+
+    public String getRegion() {
+        return region;
+    }
+
+    public void setRegion(String region) {
+        this.region = region;
+    }
+
+    public String getAssumeRoleARN() {
+        return assumeRoleARN;
+    }
+
+    public void setAssumeRoleARN(String assumeRoleARN) {
+        this.assumeRoleARN = assumeRoleARN;
+    }
+}
@@ -0,0 +1,147 @@
+package com.mdstech.opearator.cloudformation;
+
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Counters and histograms for the reconcile path, rendered in the Prometheus text format.
+ * Recording only touches pre-allocated {@link LongAdder}s, so it is safe on hot paths.
+ */
+public class OperatorMetrics {
+
+    private static final double[] BUCKETS = {
+            0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30, 60, 300, 900, 1800, 3600};
+
+    private final Map<StackOperation, Histogram> reconcileDurations = new EnumMap<>(StackOperation.class);
+    private final Histogram unchangedReconcileDurations = new Histogram();
+    private final Map<StackOperation, Histogram> waitDurations = new EnumMap<>(StackOperation.class);
+    private final Map<String, ApiCallStats> cloudFormationCalls = new ConcurrentHashMap<>();
+    private final Map<String, ApiCallStats> stsCalls = new ConcurrentHashMap<>();
+    private final Map<String, LongSupplier> gauges = new ConcurrentHashMap<>();
+
+    public OperatorMetrics() {
+        for(StackOperation operation : StackOperation.values()) {
+            reconcileDurations.put(operation, new Histogram());
+            waitDurations.put(operation, new Histogram());
+        }
+    }
+
+    public void reconcileFinished(StackOperation operation, long startedNanos) {
+        Histogram histogram = operation == null ? unchangedReconcileDurations : reconcileDurations.get(operation);
+        histogram.observe(System.nanoTime() - startedNanos);
+    }
+
+    public void waitFinished(StackOperation operation, long submittedAtMillis) {
+        waitDurations.get(operation).observe(TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis() - submittedAtMillis));
+    }
+
+    public void cloudFormationCall(String api, long startedNanos, boolean failed) {
+        cloudFormationCalls.computeIfAbsent(api, ApiCallStats::new).record(System.nanoTime() - startedNanos, failed);
+    }
+
+    public void stsCall(String api, long startedNanos, boolean failed) {
+        stsCalls.computeIfAbsent(api, ApiCallStats::new).record(System.nanoTime() - startedNanos, failed);
+    }
+
+    public void gauge(String name, LongSupplier value) {
+        gauges.put(name, value);
+    }
+
+    public String scrape() {
+        StringBuilder out = new StringBuilder();
+        out.append("# HELP cf_operator_reconcile_duration_seconds Time spent in a reconcile, by the operation it performed\n");
+        out.append("# TYPE cf_operator_reconcile_duration_seconds histogram\n");
+        reconcileDurations.forEach((operation, histogram) ->
+                histogram.write(out, "cf_operator_reconcile_duration_seconds", "operation=\"" + label(operation) + "\""));
+        unchangedReconcileDurations.write(out, "cf_operator_reconcile_duration_seconds", "operation=\"none\"");
+
+        out.append("# HELP cf_operator_stack_wait_duration_seconds Time from submit until the stack reached a terminal status\n");
+        out.append("# TYPE cf_operator_stack_wait_duration_seconds histogram\n");
+        waitDurations.forEach((operation, histogram) ->
+                histogram.write(out, "cf_operator_stack_wait_duration_seconds", "operation=\"" + label(operation) + "\""));
+
+        out.append("# HELP cf_operator_aws_call_duration_seconds Latency of AWS API calls\n");
+        out.append("# TYPE cf_operator_aws_call_duration_seconds histogram\n");
+        cloudFormationCalls.values().forEach(stats -> stats.latency.write(out, "cf_operator_aws_call_duration_seconds",
+                "service=\"cloudformation\",api=\"" + stats.api + "\""));
+        stsCalls.values().forEach(stats -> stats.latency.write(out, "cf_operator_aws_call_duration_seconds",
+                "service=\"sts\",api=\"" + stats.api + "\""));
+
+        out.append("# HELP cf_operator_aws_call_errors_total Failed AWS API calls\n");
+        out.append("# TYPE cf_operator_aws_call_errors_total counter\n");
+        cloudFormationCalls.values().forEach(stats -> out.append("cf_operator_aws_call_errors_total{service=\"cloudformation\",api=\"")
+                .append(stats.api).append("\"} ").append(stats.errors.sum()).append('\n'));
+        stsCalls.values().forEach(stats -> out.append("cf_operator_aws_call_errors_total{service=\"sts\",api=\"")
+                .append(stats.api).append("\"} ").append(stats.errors.sum()).append('\n'));
+
+        gauges.forEach((name, value) -> out.append(name).append(' ').append(value.getAsLong()).append('\n'));
+        return out.toString();
+    }
+
+    private static String label(StackOperation operation) {
+        return operation.name().toLowerCase(Locale.ROOT);
+    }
+
+    private static class ApiCallStats {
+        private final String api;
+        private final Histogram latency = new Histogram();
+        private final LongAdder errors = new LongAdder();
+
+        private ApiCallStats(String api) {
+            this.api = api;
+        }
+
+        private void record(long nanos, boolean failed) {
+            latency.observe(nanos);
+            if(failed) {
+                errors.increment();
+            }
+        }
+    }
+
+    private static class Histogram {
+        private static final long[] BOUNDS_NANOS = new long[BUCKETS.length];
+
+        static {
+            for(int i = 0; i < BUCKETS.length; i++) {
+                BOUNDS_NANOS[i] = (long) (BUCKETS[i] * TimeUnit.SECONDS.toNanos(1));
+            }
+        }
+
+        private final LongAdder[] counts = new LongAdder[BUCKETS.length + 1];
+        private final LongAdder sumNanos = new LongAdder();
+
+        private Histogram() {
+            for(int i = 0; i < counts.length; i++) {
+                counts[i] = new LongAdder();
+            }
+        }
+
+        private void observe(long nanos) {
+            int bucket = 0;
+            while(bucket < BOUNDS_NANOS.length && nanos > BOUNDS_NANOS[bucket]) {
+                bucket++;
+            }
+            counts[bucket].increment();
+            sumNanos.add(nanos);
+        }
+
+        private void write(StringBuilder out, String name, String labels) {
+            long cumulative = 0;
+            for(int i = 0; i < counts.length; i++) {
+                cumulative += counts[i].sum();
+                out.append(name).append("_bucket{").append(labels).append(",le=\"")
+                        .append(i < BUCKETS.length ? String.valueOf(BUCKETS[i]) : "+Inf").append("\"} ")
+                        .append(cumulative).append('\n');
+            }
+            out.append(name).append("_sum{").append(labels).append("} ")
+                    .append(sumNanos.sum() / (double) TimeUnit.SECONDS.toNanos(1)).append('\n');
+            out.append(name).append("_count{").append(labels).append("} ").append(cumulative).append('\n');
+        }
+    }
+}
@@ -0,0 +1,271 @@
+package com.mdstech.opearator.cloudformation;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Admission gate in front of the CloudFormation submissions. A fixed number of reconciles may
+ * submit at once, and the rest wait in priority lanes: deletes, creates, user updates and
+ * resyncs. Within a lane namespaces take turns, and within a namespace the stack with the
+ * shortest expected duration goes first, estimated from its past completions. A ticket that
+ * waited longer than the maximum wait is served ahead of the lanes, so resyncs cannot starve.
+ * An admitted resource is reconciled again through the retrigger callback and keeps its slot
+ * until it releases it, or until the grant times out because the reconcile never came.
+ */
+public class ReconcileScheduler {
+
+    private static final Logger log = LoggerFactory.getLogger(ReconcileScheduler.class);
+    private static final long STARTED = -1;
+    private static final double SMOOTHING = 0.3;
+
+    public enum Lane {
+        DELETE, CREATE, UPDATE, RESYNC
+    }
+
+    private final int slots;
+    private final long maxWaitMillis;
+    private final long grantTimeoutMillis;
+    private final Consumer<String> retrigger;
+    private final Map<String, Long> holders = new HashMap<>();
+    private final Map<String, Ticket> tickets = new HashMap<>();
+    private final Map<Lane, LaneQueue> lanes = new EnumMap<>(Lane.class);
+    private final Map<String, Double> estimates = new ConcurrentHashMap<>();
+    private volatile double defaultEstimate;
+    private final ScheduledExecutorService reaper;
+
+    public ReconcileScheduler(int slots, long maxWaitMillis, long grantTimeoutMillis, Consumer<String> retrigger) {
+        this.slots = slots;
+        this.maxWaitMillis = maxWaitMillis;
+        this.grantTimeoutMillis = grantTimeoutMillis;
+        this.retrigger = retrigger;
+        for(Lane lane : Lane.values()) {
+            lanes.put(lane, new LaneQueue());
+        }
+        this.reaper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "reconcile-scheduler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.reaper.scheduleWithFixedDelay(this::reapGrants, grantTimeoutMillis, grantTimeoutMillis / 2, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Returns true when the resource may submit now, in which case it must call
+     * {@link #release(String)} once the submission is done. Otherwise the resource is queued,
+     * or moved to the given lane when it already was, and reconciled again once admitted.
+     */
+    public boolean admit(String resourceUid, String namespace, Lane lane) {
+        List<String> admitted;
+        boolean self;
+        synchronized (this) {
+            if(holders.containsKey(resourceUid)) {
+                holders.put(resourceUid, STARTED);
+                return true;
+            }
+            Ticket ticket = tickets.get(resourceUid);
+            if(ticket != null && ticket.lane == lane) {
+                return false;
+            }
+            if(ticket == null && tickets.isEmpty() && holders.size() < slots) {
+                holders.put(resourceUid, STARTED);
+                return true;
+            }
+            if(ticket != null) {
+                lanes.get(ticket.lane).remove(ticket);
+            }
+            ticket = new Ticket(resourceUid, namespace, lane,
+                    ticket == null ? System.currentTimeMillis() : ticket.enqueuedAt, estimate(resourceUid));
+            tickets.put(resourceUid, ticket);
+            lanes.get(lane).add(ticket);
+            log.info("Queued {} in lane {}, {} waiting and {} of {} slots in use",
+                    resourceUid, lane, tickets.size(), holders.size(), slots);
+            admitted = dispatch();
+            self = admitted.remove(resourceUid);
+            if(self) {
+                holders.put(resourceUid, STARTED);
+            }
+        }
+        retrigger(admitted);
+        return self;
+    }
+
+    public void release(String resourceUid) {
+        List<String> admitted;
+        synchronized (this) {
+            if(holders.remove(resourceUid) == null) {
+                return;
+            }
+            admitted = dispatch();
+        }
+        retrigger(admitted);
+    }
+
+    public void forget(String resourceUid) {
+        List<String> admitted;
+        synchronized (this) {
+            Ticket ticket = tickets.remove(resourceUid);
+            if(ticket != null) {
+                lanes.get(ticket.lane).remove(ticket);
+            }
+            holders.remove(resourceUid);
+            admitted = dispatch();
+        }
+        estimates.remove(resourceUid);
+        retrigger(admitted);
+    }
+
+    public void recordDuration(String resourceUid, long durationMillis) {
+        estimates.merge(resourceUid, (double) durationMillis,
+                (previous, latest) -> previous + SMOOTHING * (latest - previous));
+        defaultEstimate = defaultEstimate == 0 ? durationMillis : defaultEstimate + SMOOTHING * (durationMillis - defaultEstimate);
+    }
+
+    public long estimate(String resourceUid) {
+        return Math.round(estimates.getOrDefault(resourceUid, defaultEstimate));
+    }
+
+    private List<String> dispatch() {
+        List<String> admitted = new ArrayList<>();
+        long now = System.currentTimeMillis();
+        while(holders.size() < slots && !tickets.isEmpty()) {
+            Ticket ticket = next(now);
+            tickets.remove(ticket.resourceUid);
+            holders.put(ticket.resourceUid, now);
+            admitted.add(ticket.resourceUid);
+            log.debug("Admitted {} from lane {} after {} ms", ticket.resourceUid, ticket.lane, now - ticket.enqueuedAt);
+        }
+        return admitted;
+    }
+
+    private Ticket next(long now) {
+        Ticket oldest = tickets.values().stream().min(Comparator.comparingLong(ticket -> ticket.enqueuedAt)).orElseThrow();
+        if(now - oldest.enqueuedAt > maxWaitMillis) {
+            lanes.get(oldest.lane).remove(oldest);
+            return oldest;
+        }
+        for(LaneQueue queue : lanes.values()) {
+            Ticket ticket = queue.poll();
+            if(ticket != null) {
+                return ticket;
+            }
+        }
+        throw new IllegalStateException("Tickets queued outside every lane");
+    }
+
+    private void reapGrants() {
+        List<String> admitted;
+        synchronized (this) {
+            long now = System.currentTimeMillis();
+            holders.entrySet().removeIf(holder -> {
+                if(holder.getValue() != STARTED && now - holder.getValue() > grantTimeoutMillis) {
+                    log.info("Grant of {} was not used within {} ms, reclaiming its slot", holder.getKey(), grantTimeoutMillis);
+                    return true;
+                }
+                return false;
+            });
+            admitted = dispatch();
+        }
+        retrigger(admitted);
+    }
+
+    private void retrigger(List<String> admitted) {
+        admitted.forEach(retrigger);
+    }
+
+    public synchronized int getQueued(Lane lane) {
+        return lanes.get(lane).size();
+    }
+
+    public synchronized int getRunning() {
+        return holders.size();
+    }
+
+    public void close() {
+        reaper.shutdownNow();
+    }
+
+    private static class Ticket {
+        private final String resourceUid;
+        private final String namespace;
+        private final Lane lane;
+        private final long enqueuedAt;
+        private final long estimateMillis;
+
+        private Ticket(String resourceUid, String namespace, Lane lane, long enqueuedAt, long estimateMillis) {
+            this.resourceUid = resourceUid;
+            this.namespace = namespace;
+            this.lane = lane;
+            this.enqueuedAt = enqueuedAt;
+            this.estimateMillis = estimateMillis;
+        }
+    }
+
+    /**
+     * Tickets of one lane, one queue per namespace served round robin.
+     */
+    private static class LaneQueue {
+        private static final Comparator<Ticket> SHORTEST_FIRST = Comparator
+                .comparingLong((Ticket ticket) -> ticket.estimateMillis)
+                .thenComparingLong(ticket -> ticket.enqueuedAt);
+
+        private final Map<String, PriorityQueue<Ticket>> namespaces = new LinkedHashMap<>();
+        private final Deque<String> rotation = new ArrayDeque<>();
+        private int size;
+
+        private void add(Ticket ticket) {
+            namespaces.computeIfAbsent(ticket.namespace, namespace -> {
+                rotation.addLast(namespace);
+                return new PriorityQueue<>(SHORTEST_FIRST);
+            }).add(ticket);
+            size++;
+        }
+
+        private Ticket poll() {
+            String namespace = rotation.pollFirst();
+            if(namespace == null) {
+                return null;
+            }
+            PriorityQueue<Ticket> queue = namespaces.get(namespace);
+            Ticket ticket = queue.poll();
+            if(queue.isEmpty()) {
+                namespaces.remove(namespace);
+            }
+            else {
+                rotation.addLast(namespace);
+            }
+            size--;
+            return ticket;
+        }
+
+        private void remove(Ticket ticket) {
+            PriorityQueue<Ticket> queue = namespaces.get(ticket.namespace);
+            if(queue != null && queue.remove(ticket)) {
+                size--;
+                if(queue.isEmpty()) {
+                    namespaces.remove(ticket.namespace);
+                    rotation.remove(ticket.namespace);
+                }
+            }
+        }
+
+        private int size() {
+            return size;
+        }
+    }
+}
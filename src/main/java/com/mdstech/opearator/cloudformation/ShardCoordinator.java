@@ -0,0 +1,218 @@
+package com.mdstech.opearator.cloudformation;
+
+import io.fabric8.kubernetes.api.model.coordination.v1.Lease;
+import io.fabric8.kubernetes.api.model.coordination.v1.LeaseBuilder;
+import io.fabric8.kubernetes.client.KubernetesClient;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.ZonedDateTime;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Splits Stack resources between operator replicas. Every replica renews its own Lease;
+ * the replicas with an unexpired Lease form a consistent hash ring over namespace/name,
+ * so each replica computes the same owner for a stack. The first live member acts as
+ * leader and removes expired member Leases. A replica gives up a range as soon as it sees
+ * a new member owning it, but the new member only claims its ranges one lease duration
+ * after joining. By then every replica has either seen it join or stopped acting on
+ * stacks because its own view is older than a lease duration, so two replicas never own
+ * a stack at the same time.
+ */
+public class ShardCoordinator {
+
+    private static final Logger log = LoggerFactory.getLogger(ShardCoordinator.class);
+    private static final String MEMBER_LABEL = "cloudformation.mdstechinc.com/shard-member";
+    private static final String LEASE_PREFIX = "cf-stack-operator-shard-";
+    private static final int VIRTUAL_NODES = 64;
+
+    private final KubernetesClient client;
+    private final String namespace;
+    private final String identity;
+    private final int leaseDurationSeconds;
+    private final ScheduledExecutorService scheduler;
+    private final List<Runnable> rebalanceListeners = new CopyOnWriteArrayList<>();
+    private volatile List<String> members;
+    private volatile NavigableMap<Long, String> ring;
+    private volatile long joinedAt;
+    private volatile long syncedAt;
+
+    public ShardCoordinator(KubernetesClient client, String namespace, String identity, int leaseDurationSeconds) {
+        this.client = client;
+        this.namespace = namespace;
+        this.identity = identity;
+        this.leaseDurationSeconds = leaseDurationSeconds;
+        this.members = Collections.singletonList(identity);
+        this.ring = buildRing(members);
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "shard-coordinator");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public void start() {
+        log.info("Joining shard ring as {} in namespace {}", identity, namespace);
+        scheduler.scheduleWithFixedDelay(this::heartbeat, 0, Math.max(1, leaseDurationSeconds / 3), TimeUnit.SECONDS);
+    }
+
+    public void onRebalance(Runnable listener) {
+        rebalanceListeners.add(listener);
+    }
+
+    public boolean owns(String stackNamespace, String stackName) {
+        return owns(stackNamespace, stackName, System.currentTimeMillis());
+    }
+
+    boolean owns(String stackNamespace, String stackName, long now) {
+        long leaseDurationMillis = TimeUnit.SECONDS.toMillis(leaseDurationSeconds);
+        if(now - syncedAt > leaseDurationMillis) {
+            // Our lease may have expired for the other replicas, so do not act on any stack
+            return false;
+        }
+        if(now - joinedAt < leaseDurationMillis) {
+            // Replicas that have not seen us join yet still act on our ranges
+            return false;
+        }
+        NavigableMap<Long, String> current = ring;
+        Map.Entry<Long, String> owner = current.ceilingEntry(hash(stackNamespace + "/" + stackName));
+        return identity.equals(owner == null ? current.firstEntry().getValue() : owner.getValue());
+    }
+
+    public boolean isLeader() {
+        return identity.equals(members.get(0));
+    }
+
+    private void heartbeat() {
+        try {
+            renew();
+            refreshMembers();
+            synced(System.currentTimeMillis());
+        }
+        catch (RuntimeException ex) {
+            log.warn("Shard heartbeat failed for {}", identity, ex);
+        }
+    }
+
+    /**
+     * Records a successful heartbeat. The first one, and the first one after our view went
+     * stale, starts a grace period: until it ends other replicas may still act on our
+     * ranges, and events dropped meanwhile are only recovered by rescanning the owned
+     * stacks when it ends.
+     */
+    void synced(long now) {
+        if(joinedAt == 0 || now - syncedAt > TimeUnit.SECONDS.toMillis(leaseDurationSeconds)) {
+            log.info("Shard member {} {}, claiming its ranges in {} seconds", identity,
+                    joinedAt == 0 ? "joined" : "is back in sync", leaseDurationSeconds);
+            joinedAt = now;
+            scheduler.schedule(() -> {
+                log.info("Shard member {} claims its ranges", identity);
+                rebalanceListeners.forEach(Runnable::run);
+            }, leaseDurationSeconds, TimeUnit.SECONDS);
+        }
+        syncedAt = now;
+    }
+
+    private void renew() {
+        Lease lease = new LeaseBuilder()
+                .withNewMetadata()
+                    .withName(LEASE_PREFIX + identity)
+                    .withNamespace(namespace)
+                    .addToLabels(MEMBER_LABEL, "true")
+                .endMetadata()
+                .withNewSpec()
+                    .withHolderIdentity(identity)
+                    .withLeaseDurationSeconds(leaseDurationSeconds)
+                    .withRenewTime(ZonedDateTime.now())
+                .endSpec()
+                .build();
+        client.leases().inNamespace(namespace).createOrReplace(lease);
+    }
+
+    private void refreshMembers() {
+        ZonedDateTime now = ZonedDateTime.now();
+        List<Lease> leases = client.leases().inNamespace(namespace).withLabel(MEMBER_LABEL, "true").list().getItems();
+        List<String> live = Stream.concat(Stream.of(identity), leases.stream()
+                        .filter(lease -> !isExpired(lease, now))
+                        .map(lease -> lease.getSpec().getHolderIdentity())
+                        .filter(Objects::nonNull))
+                .distinct()
+                .sorted()
+                .collect(Collectors.toList());
+        updateMembers(live);
+        if(isLeader()) {
+            leases.stream()
+                    .filter(lease -> isExpired(lease, now))
+                    .forEach(lease -> {
+                        log.info("Removing expired shard lease {}", lease.getMetadata().getName());
+                        client.leases().inNamespace(namespace).withName(lease.getMetadata().getName()).delete();
+                    });
+        }
+    }
+
+    void updateMembers(List<String> live) {
+        if(!live.equals(members)) {
+            log.info("Shard members changed from {} to {}", members, live);
+            members = live;
+            ring = buildRing(live);
+            rebalanceListeners.forEach(Runnable::run);
+        }
+    }
+
+    private boolean isExpired(Lease lease, ZonedDateTime now) {
+        if(lease.getSpec() == null || lease.getSpec().getRenewTime() == null) {
+            return true;
+        }
+        int duration = lease.getSpec().getLeaseDurationSeconds() == null ? leaseDurationSeconds : lease.getSpec().getLeaseDurationSeconds();
+        return lease.getSpec().getRenewTime().plusSeconds(duration).isBefore(now);
+    }
+
+    private NavigableMap<Long, String> buildRing(List<String> ringMembers) {
+        NavigableMap<Long, String> nodes = new TreeMap<>();
+        for(String member : ringMembers) {
+            for(int i = 0; i < VIRTUAL_NODES; i++) {
+                nodes.put(hash(member + "#" + i), member);
+            }
+        }
+        return nodes;
+    }
+
+    private static long hash(String key) {
+        try {
+            byte[] digest = MessageDigest.getInstance("MD5").digest(key.getBytes(StandardCharsets.UTF_8));
+            long value = 0;
+            for(int i = 0; i < Long.BYTES; i++) {
+                value = (value << 8) | (digest[i] & 0xff);
+            }
+            return value;
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("MD5 is not available", e);
+        }
+    }
+
+    public void stop() {
+        scheduler.shutdownNow();
+        try {
+            client.leases().inNamespace(namespace).withName(LEASE_PREFIX + identity).delete();
+            log.info("Left shard ring as {}", identity);
+        }
+        catch (RuntimeException ex) {
+            log.warn("Unable to remove shard lease for {}", identity, ex);
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package com.mdstech.opearator.cloudformation;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+public final class SpecFingerprint {
+
+    private SpecFingerprint() {
+    }
+
+    public static String compute(StackSpec spec, Map<String, String> parameters, String templateHash,
+                                 Collection<String> defaultCapabilities) {
+        StringBuilder canonical = new StringBuilder()
+                .append("template=").append(templateHash).append('\n')
+                .append("customRoleARN=").append(spec.getCustomRoleARN()).append('\n');
+        // Only present when set, so stacks in the operator's default target keep their fingerprint
+        if(spec.getRegion() != null) {
+            canonical.append("region=").append(spec.getRegion()).append('\n');
+        }
+        if(spec.getAssumeRoleARN() != null) {
+            canonical.append("assumeRoleARN=").append(spec.getAssumeRoleARN()).append('\n');
+        }
+        appendSorted(canonical, "parameters", parameters);
+        appendSorted(canonical, "tags", spec.getTags());
+        canonical.append("capabilities=")
+                .append(defaultCapabilities == null ? "" : new TreeSet<>(defaultCapabilities))
+                .append('\n');
+        return sha256(canonical.toString());
+    }
+
+    public static String sha256(String value) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(value.getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder(digest.length * 2);
+            for(byte b : digest) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    private static void appendSorted(StringBuilder canonical, String name, Map<String, String> values) {
+        canonical.append(name).append('=');
+        if(values != null) {
+            new TreeMap<>(values).forEach((key, value) ->
+                    canonical.append(key.length()).append(':').append(key).append('=')
+                            .append(value == null ? 0 : value.length()).append(':').append(value).append(';'));
+        }
+        canonical.append('\n');
+    }
+}
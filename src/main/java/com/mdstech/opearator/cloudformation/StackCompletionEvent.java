@@ -0,0 +1,11 @@
+package com.mdstech.opearator.cloudformation;
+
+import io.javaoperatorsdk.operator.processing.event.AbstractEvent;
+import io.javaoperatorsdk.operator.processing.event.EventSource;
+
+public class StackCompletionEvent extends AbstractEvent {
+
+    public StackCompletionEvent(String relatedCustomResourceUid, EventSource eventSource) {
+        super(relatedCustomResourceUid, eventSource);
+    }
+}
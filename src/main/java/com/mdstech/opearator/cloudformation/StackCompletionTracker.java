@@ -0,0 +1,114 @@
+package com.mdstech.opearator.cloudformation;
+
+import com.amazonaws.services.cloudformation.model.StackEvent;
+import io.javaoperatorsdk.operator.processing.event.AbstractEventSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Follows submitted CloudFormation operations in the background and re-triggers
+ * reconciliation of the owning resource once the stack reaches a terminal status.
+ */
+public class StackCompletionTracker extends AbstractEventSource {
+
+    private static final Logger log = LoggerFactory.getLogger(StackCompletionTracker.class);
+
+    private final Map<String, TrackedOperation> inFlight = new ConcurrentHashMap<>();
+    private final Map<String, TrackedOperation> completed = new ConcurrentHashMap<>();
+    private final StackStatusPoller poller;
+    private final OperatorMetrics metrics;
+    private final StackEventPublisher eventPublisher;
+
+    public StackCompletionTracker(long minPollIntervalMillis,
+                                  long maxPollIntervalMillis,
+                                  OperatorMetrics metrics,
+                                  StackEventPublisher eventPublisher,
+                                  int recentEventLimit,
+                                  boolean virtualThreads) {
+        this.metrics = metrics;
+        this.eventPublisher = eventPublisher;
+        this.poller = new StackStatusPoller(minPollIntervalMillis, maxPollIntervalMillis,
+                eventPublisher == null ? null : new StackEventStreamer(recentEventLimit, this::progress),
+                virtualThreads,
+                this::complete);
+    }
+
+    public void track(TrackedOperation operation) {
+        log.info("Tracking {} until one of {}", operation, operation.getTerminalStatuses());
+        completed.remove(operation.getResourceUid());
+        TrackedOperation previous = inFlight.put(operation.getResourceUid(), operation);
+        if(previous != null) {
+            poller.unregister(previous);
+        }
+        poller.register(operation);
+    }
+
+    public Optional<TrackedOperation> getInFlight(String resourceUid) {
+        return Optional.ofNullable(inFlight.get(resourceUid));
+    }
+
+    public boolean isTracking(String resourceUid) {
+        return inFlight.containsKey(resourceUid);
+    }
+
+    public Optional<TrackedOperation> takeCompleted(String resourceUid) {
+        return Optional.ofNullable(completed.remove(resourceUid));
+    }
+
+    public long countInFlight(StackOperation operation) {
+        return inFlight.values().stream().filter(tracked -> tracked.getOperation() == operation).count();
+    }
+
+    public StackStatusPoller getPoller() {
+        return poller;
+    }
+
+    public void retrigger(String resourceUid) {
+        if(eventHandler != null) {
+            eventHandler.handleEvent(new StackCompletionEvent(resourceUid, this));
+        }
+    }
+
+    public void retriggerAfter(String resourceUid, long delayMillis) {
+        poller.schedule(() -> retrigger(resourceUid), delayMillis);
+    }
+
+    private void progress(TrackedOperation operation, List<StackEvent> events) {
+        log.debug("{} new stack events for {}", events.size(), operation);
+        eventPublisher.publish(operation, events);
+        if(inFlight.get(operation.getResourceUid()) == operation) {
+            retrigger(operation.getResourceUid());
+        }
+    }
+
+    private void complete(TrackedOperation operation, com.amazonaws.services.cloudformation.model.Stack stack) {
+        log.info("Cloud formation process is completed for {}", operation);
+        operation.setResult(stack);
+        if(inFlight.remove(operation.getResourceUid(), operation)) {
+            metrics.waitFinished(operation.getOperation(), operation.getSubmittedAt());
+            completed.put(operation.getResourceUid(), operation);
+            retrigger(operation.getResourceUid());
+        }
+    }
+
+    @Override
+    public void eventSourceDeRegisteredForResource(String customResourceUid) {
+        TrackedOperation operation = inFlight.remove(customResourceUid);
+        if(operation != null) {
+            poller.unregister(operation);
+        }
+        completed.remove(customResourceUid);
+    }
+
+    public void close() {
+        poller.close();
+        if(eventPublisher != null) {
+            eventPublisher.close();
+        }
+    }
+}
@@ -1,28 +1,37 @@
 package com.mdstech.opearator.cloudformation;
 
-import com.amazonaws.auth.AWSStaticCredentialsProvider;
-import com.amazonaws.auth.BasicSessionCredentials;
-import com.amazonaws.auth.WebIdentityTokenCredentialsProvider;
 import com.amazonaws.regions.Regions;
 import com.amazonaws.services.cloudformation.AmazonCloudFormation;
-import com.amazonaws.services.cloudformation.AmazonCloudFormationClientBuilder;
 import com.amazonaws.services.cloudformation.model.*;
-import com.amazonaws.services.securitytoken.AWSSecurityTokenService;
-import com.amazonaws.services.securitytoken.AWSSecurityTokenServiceClientBuilder;
-import com.amazonaws.services.securitytoken.model.AssumeRoleRequest;
-import com.amazonaws.services.securitytoken.model.Credentials;
+import io.fabric8.kubernetes.client.KubernetesClient;
 import io.javaoperatorsdk.operator.api.*;
+import io.javaoperatorsdk.operator.processing.event.EventSourceManager;
 
+import java.lang.management.ManagementFactory;
+import java.time.Instant;
 import java.util.*;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import static com.amazonaws.services.cloudformation.model.StackStatus.CREATE_COMPLETE;
+import static com.amazonaws.services.cloudformation.model.StackStatus.CREATE_FAILED;
+import static com.amazonaws.services.cloudformation.model.StackStatus.DELETE_COMPLETE;
+import static com.amazonaws.services.cloudformation.model.StackStatus.DELETE_FAILED;
+import static com.amazonaws.services.cloudformation.model.StackStatus.ROLLBACK_FAILED;
+import static com.amazonaws.services.cloudformation.model.StackStatus.UPDATE_COMPLETE;
+import static com.amazonaws.services.cloudformation.model.StackStatus.UPDATE_ROLLBACK_COMPLETE;
+import static com.amazonaws.services.cloudformation.model.StackStatus.UPDATE_ROLLBACK_FAILED;
+
 @Controller
 public class StackController implements ResourceController<Stack> {
 
@@ -30,86 +39,700 @@ public class StackController implements ResourceController<Stack> {
     public static final String REGION = "AWS_REGION";
     private static final String DEFAULT_TAGS = "DEFAULT_TAGS";
     private static final String DEFAULT_CAPABILITIES = "DEFAULT_CAPABILITIES";
+    private static final String STACK_POLL_INTERVAL = "STACK_POLL_INTERVAL_SECONDS";
+    private static final String STACK_POLL_MIN_INTERVAL = "STACK_POLL_MIN_INTERVAL_SECONDS";
+    private static final String STACK_INDEX_MAX_AGE = "STACK_INDEX_MAX_AGE_SECONDS";
+    private static final String STACK_INDEX_REFRESH_INTERVAL = "STACK_INDEX_REFRESH_INTERVAL_SECONDS";
+    private static final String UPDATE_STRATEGY = "UPDATE_STRATEGY";
+    private static final String TEMPLATE_CACHE_MAX_ENTRIES = "TEMPLATE_CACHE_MAX_ENTRIES";
+    private static final String TEMPLATE_CACHE_MAX_BYTES = "TEMPLATE_CACHE_MAX_BYTES";
+    private static final String AWS_WORKER_THREADS = "AWS_WORKER_THREADS";
+    private static final String AWS_CALLS_PER_SECOND = "AWS_CALLS_PER_SECOND";
+    private static final String AWS_CALL_BURST = "AWS_CALL_BURST";
+    private static final String AWS_MAX_RETRIES = "AWS_MAX_RETRIES";
+    private static final String VIRTUAL_THREADS = "VIRTUAL_THREADS";
+    private static final String AWS_MAX_CONCURRENT_CALLS = "AWS_MAX_CONCURRENT_CALLS";
+    private static final String AWS_MAX_CALLS_PER_TARGET = "AWS_MAX_CALLS_PER_TARGET";
+    private static final String STACK_EVENTS_ENABLED = "STACK_EVENTS_ENABLED";
+    private static final String STACK_EVENTS_LIMIT = "STACK_EVENTS_LIMIT";
+    private static final String SHARDING_ENABLED = "SHARDING_ENABLED";
+    private static final String SHARD_LEASE_DURATION = "SHARD_LEASE_DURATION_SECONDS";
+    private static final String POD_NAME = "POD_NAME";
+    private static final String POD_NAMESPACE = "POD_NAMESPACE";
+    private static final String STARTUP_RESYNC_WINDOW = "STARTUP_RESYNC_WINDOW_SECONDS";
+    private static final String DRIFT_DETECTION_ENABLED = "DRIFT_DETECTION_ENABLED";
+    private static final String DRIFT_STALE_AFTER = "DRIFT_STALE_AFTER_SECONDS";
+    private static final String DRIFT_MAX_CONCURRENT = "DRIFT_MAX_CONCURRENT";
+    private static final String STATUS_COALESCE_WINDOW = "STATUS_COALESCE_WINDOW_MILLIS";
+    private static final String SUBMIT_SLOTS = "SUBMIT_SLOTS";
+    private static final String SUBMIT_MAX_WAIT = "SUBMIT_MAX_WAIT_SECONDS";
+    private static final StatusSet<?> SUCCESS_STATUSES = StatusSet.of(CREATE_COMPLETE, UPDATE_COMPLETE);
+    private static final StatusSet<?> UPDATE_TERMINAL_STATUSES =
+            StatusSet.of(UPDATE_COMPLETE, CREATE_COMPLETE, UPDATE_ROLLBACK_FAILED, UPDATE_ROLLBACK_COMPLETE);
+    private static final StatusSet<?> CREATE_TERMINAL_STATUSES = StatusSet.of(CREATE_FAILED, CREATE_COMPLETE, ROLLBACK_FAILED);
+    private static final StatusSet<?> DELETE_TERMINAL_STATUSES = StatusSet.of(DELETE_COMPLETE, DELETE_FAILED);
+    private static final StatusSet<?> CHANGE_SET_TERMINAL_STATUSES =
+            StatusSet.of(ChangeSetStatus.CREATE_COMPLETE, ChangeSetStatus.FAILED, ChangeSetStatus.DELETE_COMPLETE);
     private static final Logger log = LoggerFactory.getLogger(StackController.class);
 
     private String assumeRoleArn;
     private String region;
     private Collection<String>  defaultCapabilities;
     private List<Tag> defaultTags;
+    private boolean useChangeSets;
     private String roleSessionName = "awsCFSession";
+    private final StackCompletionTracker completionTracker;
+    private final OperatorMetrics metrics;
+    private final AwsCallExecutor callExecutor;
+    private final boolean virtualThreads;
+    private final AwsClientPool clientPool;
+    private final AwsTarget defaultTarget;
+    private final Map<AwsTarget, AwsTargetContext> targetContexts = new ConcurrentHashMap<>();
+    private final Map<String, StackRequestModel> requestModels = new ConcurrentHashMap<>();
+    private final long stackIndexMaxAge;
+    private final long stackIndexRefreshInterval;
+    private final ScheduledExecutorService stackIndexRefresher;
+    private final TemplateCache templateCache;
+    private final ShardCoordinator shardCoordinator;
+    private final DriftDetector driftDetector;
+    private final StatusWriter statusWriter;
+    private final ReconcileScheduler scheduler;
+    private final Map<String, String> knownStacks = new ConcurrentHashMap<>();
+    private final StackDependencyGraph dependencyGraph = new StackDependencyGraph();
+    private final KubernetesClient kubernetesClient;
+    private final long startedAt = System.currentTimeMillis();
+    private final long startupResyncWindow;
+    private final Map<String, Long> deferredResyncs = new ConcurrentHashMap<>();
+    private final CompletableFuture<Void> warm = new CompletableFuture<>();
+    private final AtomicLong warmAt = new AtomicLong();
+    private final AtomicLong firstReconcileAt = new AtomicLong();
+
+    public StackController(KubernetesClient client) {
+        this(client, null);
+    }
 
-    public StackController() {
+    StackController(KubernetesClient client, Function<AwsTarget, AmazonCloudFormation> clientFactory) {
+        this(client, clientFactory, null);
+    }
+
+    StackController(KubernetesClient client, Function<AwsTarget, AmazonCloudFormation> clientFactory, StatusWriter statusWriter) {
         initializeEnvProperties();
+        kubernetesClient = client;
+        metrics = new OperatorMetrics();
+        virtualThreads = Boolean.parseBoolean(getProperty(VIRTUAL_THREADS, "false"));
+        int maxConcurrentCalls = virtualThreads ?
+                Integer.parseInt(getProperty(AWS_MAX_CONCURRENT_CALLS, "256")) :
+                Integer.parseInt(getProperty(AWS_WORKER_THREADS, "16"));
+        callExecutor = new AwsCallExecutor(
+                maxConcurrentCalls,
+                Integer.parseInt(getProperty(AWS_MAX_CALLS_PER_TARGET, String.valueOf(Math.max(1, maxConcurrentCalls / 2)))),
+                virtualThreads,
+                Double.parseDouble(getProperty(AWS_CALLS_PER_SECOND, "5")),
+                Integer.parseInt(getProperty(AWS_CALL_BURST, "10")),
+                Integer.parseInt(getProperty(AWS_MAX_RETRIES, "6")),
+                metrics);
+        clientPool = new AwsClientPool(roleSessionName, callExecutor, metrics, clientFactory);
+        defaultTarget = new AwsTarget(region, assumeRoleArn);
+        templateCache = new TemplateCache(
+                Integer.parseInt(getProperty(TEMPLATE_CACHE_MAX_ENTRIES, "1000")),
+                Long.parseLong(getProperty(TEMPLATE_CACHE_MAX_BYTES, String.valueOf(64 * 1024 * 1024))));
+        stackIndexMaxAge = TimeUnit.SECONDS.toMillis(Long.parseLong(getProperty(STACK_INDEX_MAX_AGE, "300")));
+        stackIndexRefreshInterval = TimeUnit.SECONDS.toMillis(Long.parseLong(getProperty(STACK_INDEX_REFRESH_INTERVAL, "240")));
+        stackIndexRefresher = Executors.newSingleThreadScheduledExecutor(CallerThreads.factory("stack-index-refresh-", virtualThreads));
+        startupResyncWindow = TimeUnit.SECONDS.toMillis(Long.parseLong(getProperty(STARTUP_RESYNC_WINDOW, "60")));
+        this.statusWriter = statusWriter != null ? statusWriter :
+                new StatusWriter(client, Long.parseLong(getProperty(STATUS_COALESCE_WINDOW, "250")));
+        completionTracker = new StackCompletionTracker(
+                TimeUnit.SECONDS.toMillis(Long.parseLong(getProperty(STACK_POLL_MIN_INTERVAL, "5"))),
+                TimeUnit.SECONDS.toMillis(Long.parseLong(getProperty(STACK_POLL_INTERVAL, "60"))),
+                metrics,
+                Boolean.parseBoolean(getProperty(STACK_EVENTS_ENABLED, "true")) ? new StackEventPublisher(client, virtualThreads) : null,
+                Integer.parseInt(getProperty(STACK_EVENTS_LIMIT, "10")),
+                virtualThreads);
+        scheduler = new ReconcileScheduler(
+                Integer.parseInt(getProperty(SUBMIT_SLOTS, "3")),
+                TimeUnit.SECONDS.toMillis(Long.parseLong(getProperty(SUBMIT_MAX_WAIT, "300"))),
+                TimeUnit.SECONDS.toMillis(30),
+                completionTracker::retrigger);
+        if(Boolean.parseBoolean(getProperty(SHARDING_ENABLED, "false"))) {
+            shardCoordinator = new ShardCoordinator(client,
+                    getProperty(POD_NAMESPACE, "cf-stack-operator"),
+                    getProperty(POD_NAME, UUID.randomUUID().toString()),
+                    Integer.parseInt(getProperty(SHARD_LEASE_DURATION, "15")));
+            shardCoordinator.onRebalance(this::retriggerOwnedStacks);
+        }
+        else {
+            shardCoordinator = null;
+        }
+        if(Boolean.parseBoolean(getProperty(DRIFT_DETECTION_ENABLED, "false"))) {
+            driftDetector = new DriftDetector(
+                    TimeUnit.SECONDS.toMillis(Long.parseLong(getProperty(STACK_POLL_MIN_INTERVAL, "5"))),
+                    TimeUnit.SECONDS.toMillis(Long.parseLong(getProperty(DRIFT_STALE_AFTER, "3600"))),
+                    Integer.parseInt(getProperty(DRIFT_MAX_CONCURRENT, "10")),
+                    virtualThreads,
+                    this::isDriftCheckable,
+                    completionTracker::retrigger);
+        }
+        else {
+            driftDetector = null;
+        }
+        registerGauges();
+    }
+
+    private void registerGauges() {
+        for(StackOperation operation : StackOperation.values()) {
+            metrics.gauge(String.format("cf_operator_stacks_in_flight{operation=\"%s\"}", operation.name().toLowerCase(Locale.ROOT)),
+                    () -> completionTracker.countInFlight(operation));
+        }
+        metrics.gauge("cf_operator_poller_waiting_stacks", () -> completionTracker.getPoller().getWaitingCount());
+        metrics.gauge("cf_operator_poller_saved_calls_total", () -> completionTracker.getPoller().getSavedCalls());
+        metrics.gauge("cf_operator_aws_call_queue_depth", callExecutor::getQueueDepth);
+        metrics.gauge("cf_operator_aws_client_cache_hits_total", clientPool::getHits);
+        metrics.gauge("cf_operator_aws_client_cache_misses_total", clientPool::getMisses);
+        metrics.gauge("cf_operator_aws_credential_refreshes_total", clientPool::getRefreshes);
+        metrics.gauge("cf_operator_aws_credential_refresh_failures_total", clientPool::getRefreshFailures);
+        metrics.gauge("cf_operator_template_cache_hits_total", templateCache::getHits);
+        metrics.gauge("cf_operator_template_cache_misses_total", templateCache::getMisses);
+        metrics.gauge("cf_operator_status_patches_total", statusWriter::getPatches);
+        metrics.gauge("cf_operator_status_writes_skipped_total", statusWriter::getSkipped);
+        metrics.gauge("cf_operator_status_writes_coalesced_total", statusWriter::getCoalesced);
+        metrics.gauge("cf_operator_status_patch_failures_total", statusWriter::getFailures);
+        for(ReconcileScheduler.Lane lane : ReconcileScheduler.Lane.values()) {
+            metrics.gauge(String.format("cf_operator_submit_queued{lane=\"%s\"}", lane.name().toLowerCase(Locale.ROOT)),
+                    () -> scheduler.getQueued(lane));
+        }
+        metrics.gauge("cf_operator_submit_running", scheduler::getRunning);
+        long jvmStartedAt = ManagementFactory.getRuntimeMXBean().getStartTime();
+        metrics.gauge("cf_operator_startup_warm_milliseconds", () -> warmAt.get() == 0 ? 0 : warmAt.get() - jvmStartedAt);
+        metrics.gauge("cf_operator_startup_first_reconcile_milliseconds",
+                () -> firstReconcileAt.get() == 0 ? 0 : firstReconcileAt.get() - jvmStartedAt);
+        if(driftDetector != null) {
+            metrics.gauge("cf_operator_drift_watched_stacks", driftDetector::getWatchedCount);
+            metrics.gauge("cf_operator_drift_drifted_stacks", driftDetector::getDriftedCount);
+        }
+        metrics.gauge("cf_operator_shard_owned_stacks", () -> knownStacks.values().stream().filter(this::owns).count());
+    }
+
+    public OperatorMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Builds the AWS client of every target in use, assuming its role, and seeds its stack
+     * index in the background, so the first reconciles find warm caches. Runs alongside the
+     * informer sync, and a target that fails to warm up does not hold up the others.
+     */
+    public CompletableFuture<Void> warmUp() {
+        CompletableFuture.runAsync(() -> {
+            Set<AwsTarget> targets = new HashSet<>();
+            targets.add(defaultTarget);
+            try {
+                kubernetesClient.customResources(Stack.class).inAnyNamespace().list().getItems()
+                        .forEach(stack -> targets.add(targetOf(stack.getSpec())));
+            }
+            catch (RuntimeException ex) {
+                log.warn("Unable to list stacks, warming up the default target only", ex);
+            }
+            CompletableFuture.allOf(targets.stream()
+                    .map(target -> CompletableFuture.runAsync(() -> targetContext(target).getStackIndex().seed(),
+                            runnable -> CallerThreads.factory("cache-warmup-" + target.getRegion() + "-", virtualThreads)
+                                    .newThread(runnable).start()).exceptionally(ex -> {
+                        log.warn("Cache warm up of {} failed, its caches will fill on demand", target, ex);
+                        return null;
+                    }))
+                    .toArray(CompletableFuture[]::new)).join();
+        }, runnable -> {
+            Thread thread = new Thread(runnable, "cache-warmup");
+            thread.setDaemon(true);
+            thread.start();
+        }).whenComplete((ignored, ex) -> {
+            warmAt.set(System.currentTimeMillis());
+            if(ex != null) {
+                log.warn("Cache warm up failed, caches will fill on demand", ex);
+            }
+            else {
+                log.info("Caches of {} targets warm {} ms after start", targetContexts.size(), warmAt.get() - startedAt);
+            }
+            warm.complete(null);
+        });
+        return warm;
+    }
+
+    public boolean isReady() {
+        return warm.isDone();
+    }
+
+    StackCompletionTracker getCompletionTracker() {
+        return completionTracker;
+    }
+
+    public Optional<ShardCoordinator> getShardCoordinator() {
+        return Optional.ofNullable(shardCoordinator);
     }
 
     private void initializeEnvProperties() {
-        Arrays.asList(ASSUME_ROLE, REGION, DEFAULT_CAPABILITIES, DEFAULT_TAGS).stream().forEach(key -> {
+        Arrays.asList(ASSUME_ROLE, REGION, DEFAULT_CAPABILITIES, DEFAULT_TAGS,
+                STACK_POLL_INTERVAL, STACK_POLL_MIN_INTERVAL, STACK_INDEX_MAX_AGE, STACK_INDEX_REFRESH_INTERVAL, UPDATE_STRATEGY,
+                TEMPLATE_CACHE_MAX_ENTRIES, TEMPLATE_CACHE_MAX_BYTES,
+                AWS_WORKER_THREADS, AWS_CALLS_PER_SECOND, AWS_CALL_BURST, AWS_MAX_RETRIES,
+                VIRTUAL_THREADS, AWS_MAX_CONCURRENT_CALLS, AWS_MAX_CALLS_PER_TARGET,
+                STACK_EVENTS_ENABLED, STACK_EVENTS_LIMIT,
+                SHARDING_ENABLED, SHARD_LEASE_DURATION, POD_NAME, POD_NAMESPACE, STARTUP_RESYNC_WINDOW,
+                DRIFT_DETECTION_ENABLED, DRIFT_STALE_AFTER, DRIFT_MAX_CONCURRENT, STATUS_COALESCE_WINDOW,
+                SUBMIT_SLOTS, SUBMIT_MAX_WAIT).stream().forEach(key -> {
             log.info(String.format("%s:  %s", key, System.getenv(key)));
         });
         region = getProperty(REGION, Regions.US_EAST_1.getName());
         assumeRoleArn = getProperty(ASSUME_ROLE, null);
         defaultCapabilities = convertToCapabilities(getProperty(DEFAULT_CAPABILITIES, null));
         defaultTags = convertToDefaultTags(getProperty(DEFAULT_TAGS, null));
+        useChangeSets = !"DIRECT".equalsIgnoreCase(getProperty(UPDATE_STRATEGY, "CHANGE_SET"));
     }
 
     private String getProperty(String key, String defaultValue) {
-        if(System.getenv(key) == null || System.getenv(key).isBlank()) {
+        String value = System.getenv(key) == null ? System.getProperty(key) : System.getenv(key);
+        if(value == null || value.isBlank()) {
             return defaultValue;
         }
-        return System.getenv(key);
+        return value;
+    }
+
+    @Override
+    public void init(EventSourceManager eventSourceManager) {
+        eventSourceManager.registerEventSource("stack-completion", completionTracker);
+        if(shardCoordinator != null) {
+            shardCoordinator.start();
+        }
+    }
+
+    private boolean owns(Stack stack) {
+        knownStacks.put(stack.getMetadata().getUid(), stack.getMetadata().getNamespace() + "/" + stack.getMetadata().getName());
+        return shardCoordinator == null || shardCoordinator.owns(stack.getMetadata().getNamespace(), stack.getMetadata().getName());
+    }
+
+    private boolean owns(String namespacedName) {
+        int separator = namespacedName.indexOf('/');
+        return shardCoordinator == null ||
+                shardCoordinator.owns(namespacedName.substring(0, separator), namespacedName.substring(separator + 1));
+    }
+
+    private void retriggerOwnedStacks() {
+        knownStacks.forEach((uid, namespacedName) -> {
+            if(owns(namespacedName) && !completionTracker.isTracking(uid)) {
+                completionTracker.retrigger(uid);
+            }
+        });
     }
 
     @Override
     public UpdateControl<Stack> createOrUpdateResource(Stack stack, Context<Stack> context) {
+        long reconcileStartNanos = System.nanoTime();
+        long reconcileStartMillis = System.currentTimeMillis();
+        UpdateControl<Stack> updateControl = reconcile(stack);
+        if(firstReconcileAt.get() == 0 && firstReconcileAt.compareAndSet(0, System.currentTimeMillis())) {
+            log.info("First reconcile finished {} ms after start", firstReconcileAt.get() - startedAt);
+        }
+        metrics.reconcileFinished(completionTracker.getInFlight(stack.getMetadata().getUid())
+                .filter(operation -> operation.getSubmittedAt() >= reconcileStartMillis)
+                .map(TrackedOperation::getOperation)
+                .orElse(null), reconcileStartNanos);
+        return updateControl;
+    }
+
+    private UpdateControl<Stack> reconcile(Stack stack) {
         log.info("Execution createOrUpdateResource for: {} and Stack is {}", stack.getMetadata().getName(), stack.getSpec());
-        AmazonCloudFormation amazonCloudFormation = createAWSClientSession();
-        TemplateProcessor templateProcessor = new TemplateProcessor(amazonCloudFormation, defaultTags, defaultCapabilities);
-        stack.getMetadata().getOwnerReferences().stream().forEach(or -> log.info(or.toString()));
-        boolean isStackExist = templateProcessor.isCreatedOrUpdatedStackExist(stack.getMetadata().getName());
-        List<String> statuses;
-        if(isStackExist) {
-            log.info("Before update stack: {}", stack.getMetadata().getName());
-            stack.getMetadata().getFinalizers().stream().forEach(log::info);
-            UpdateStackResult updateStackResult = templateProcessor.updateStack(
-                    stack.getMetadata().getName(),
-                    stack.getSpec().getCustomRoleARN(),
-                    stack.getSpec().getTemplateURL(),
-                    stack.getSpec().getParameters(),
-                    stack.getSpec().getTags());
-            log.info("Update stack result: {}", updateStackResult);
-            statuses = Arrays.asList("UPDATE_COMPLETE", "CREATE_COMPLETE", "UPDATE_ROLLBACK_FAILED","UPDATE_ROLLBACK_COMPLETE");
+        String uid = stack.getMetadata().getUid();
+        statusWriter.observe(stack);
+        observeOutputs(stack);
+        Optional<TrackedOperation> completedOperation = completionTracker.takeCompleted(uid);
+        if(completedOperation.isPresent()) {
+            TrackedOperation operation = completedOperation.get();
+            recordDuration(operation);
+            if(!Objects.equals(operation.getGeneration(), stack.getMetadata().getGeneration())) {
+                log.info("Stack {} changed while {} was in progress, reconciling again", stack.getMetadata().getName(), operation);
+                completionTracker.retrigger(uid);
+                if(operation.getOperation() == StackOperation.CHANGE_SET) {
+                    newTemplateProcessor(targetContext(operation.getTarget())).deleteChangeSet(operation.getChangeSetId());
+                    return updateStatus(stack, stack.getStatus() == null ? null : stack.getStatus().getStatus(), null);
+                }
+            }
+            if(operation.getOperation() == StackOperation.CHANGE_SET) {
+                return completeChangeSet(stack, operation);
+            }
+            return completeOperation(stack, operation);
         }
-        else {
-            log.info("Before create stack: {}", stack.getMetadata().getName());
-            CreateStackResult createStackResult = templateProcessor.createStack(
-                    stack.getMetadata().getName(),
-                    stack.getSpec().getCustomRoleARN(),
-                    stack.getSpec().getTemplateURL(),
-                    stack.getSpec().getParameters(),
-                    stack.getSpec().getTags());
-            log.info("Create stack result: {}", createStackResult);
-            statuses = Arrays.asList("CREATE_FAILED", "CREATE_COMPLETE", "ROLLBACK_FAILED");
+        Optional<TrackedOperation> inFlightOperation = completionTracker.getInFlight(uid);
+        if(inFlightOperation.isPresent()) {
+            log.info("Stack {} has an operation in progress, waiting for completion", stack.getMetadata().getName());
+            return updateProgress(stack, inFlightOperation.get());
+        }
+        if(!owns(stack)) {
+            log.debug("Stack {} belongs to another operator replica, skipping", stack.getMetadata().getName());
+            return UpdateControl.noUpdate();
+        }
+        if(resume(stack)) {
+            return UpdateControl.noUpdate();
+        }
+        StackRequestModel request = requestModels.get(uid);
+        if(request == null || !request.isCurrent(stack, dependencyGraph.getOutputsVersion())) {
+            try {
+                long outputsVersion = dependencyGraph.getOutputsVersion();
+                CachedTemplate template = templateCache.resolve(stack.getSpec());
+                Optional<Map<String, String>> resolvedParameters = resolveParameters(stack);
+                if(resolvedParameters.isEmpty()) {
+                    log.info("Stack {} is waiting on the outputs of its dependencies", stack.getMetadata().getName());
+                    return stack.getStatus() != null && "WAITING_ON_DEPENDENCIES".equals(stack.getStatus().getStatus()) ?
+                            UpdateControl.noUpdate() : updateStatus(stack, "WAITING_ON_DEPENDENCIES");
+                }
+                request = StackRequestModel.build(stack, targetOf(stack.getSpec()), template, resolvedParameters.get(),
+                        outputsVersion, defaultTags, defaultCapabilities);
+                requestModels.put(uid, request);
+            }
+            catch (IllegalArgumentException e) {
+                log.error("Invalid stack spec for {}", stack.getMetadata().getName(), e);
+                return updateStatus(stack, "ERROR");
+            }
+        }
+        String specFingerprint = request.getSpecFingerprint();
+        if(isUpToDate(stack, specFingerprint)) {
+            log.info("Stack {} is unchanged since last reconcile, skipping", stack.getMetadata().getName());
+            return reportDrift(stack, request);
+        }
+        if(deferResync(stack)) {
+            return UpdateControl.noUpdate();
+        }
+        if(driftDetector != null) {
+            driftDetector.invalidate(uid);
+        }
+        ReconcileScheduler.Lane lane = laneOf(stack);
+        if(!scheduler.admit(uid, stack.getMetadata().getNamespace(), lane)) {
+            log.info("Stack {} is queued in lane {}", stack.getMetadata().getName(), lane);
+            return UpdateControl.noUpdate();
         }
         try {
-            com.amazonaws.services.cloudformation.model.Stack cfStack = waitForCompletion(amazonCloudFormation, stack.getMetadata().getName(), statuses);
-            if(cfStack != null) {
-                return updateStatus(stack, cfStack, isStackExist);
+            return submit(stack, request);
+        }
+        finally {
+            scheduler.release(uid);
+        }
+    }
+
+    private ReconcileScheduler.Lane laneOf(Stack stack) {
+        StackStatus status = stack.getStatus();
+        if(status == null || status.getStackID() == null) {
+            return ReconcileScheduler.Lane.CREATE;
+        }
+        if(!Objects.equals(stack.getMetadata().getGeneration(), status.getObservedGeneration())) {
+            return ReconcileScheduler.Lane.UPDATE;
+        }
+        return ReconcileScheduler.Lane.RESYNC;
+    }
+
+    private UpdateControl<Stack> submit(Stack stack, StackRequestModel request) {
+        String specFingerprint = request.getSpecFingerprint();
+        AwsTargetContext targetContext = targetContext(request.getTarget());
+        AmazonCloudFormation amazonCloudFormation = targetContext.getAmazonCloudFormation();
+        TemplateProcessor templateProcessor = newTemplateProcessor(targetContext);
+        stack.getMetadata().getOwnerReferences().stream().forEach(or -> log.info(or.toString()));
+        try {
+            String validationError = templateProcessor.validateTemplate(request.getTemplate());
+            if(validationError != null) {
+                log.error("Template of stack {} is not valid: {}", stack.getMetadata().getName(), validationError);
+                return updateStatus(stack, "ERROR");
+            }
+            boolean isStackExist = templateProcessor.isCreatedOrUpdatedStackExist(stack.getMetadata().getName());
+            if(isStackExist && useChangeSets) {
+                return submitChangeSet(stack, templateProcessor, targetContext, request);
+            }
+            StackOperation operation;
+            String stackId;
+            if(isStackExist) {
+                log.info("Before update stack: {}", stack.getMetadata().getName());
+                stack.getMetadata().getFinalizers().stream().forEach(log::info);
+                UpdateStackResult updateStackResult = templateProcessor.updateStack(stack.getMetadata().getName(), request);
+                log.info("Update stack result: {}", updateStackResult);
+                if(updateStackResult == null) {
+                    return updateStatus(stack, "ERROR");
+                }
+                if(updateStackResult.getStackId() == null) {
+                    return markUnchanged(stack, specFingerprint, stack.getMetadata().getGeneration());
+                }
+                operation = StackOperation.UPDATE;
+                stackId = updateStackResult.getStackId();
             }
             else {
-                log.warn("Returned cloud formation stacks is null");
-                return UpdateControl.noUpdate();
+                log.info("Before create stack: {}", stack.getMetadata().getName());
+                CreateStackResult createStackResult = templateProcessor.createStack(stack.getMetadata().getName(), request);
+                log.info("Create stack result: {}", createStackResult);
+                if(createStackResult == null) {
+                    return updateStatus(stack, "ERROR");
+                }
+                operation = StackOperation.CREATE;
+                stackId = createStackResult.getStackId();
             }
+            TrackedOperation trackedOperation = new TrackedOperation(stack, operation, terminalStatuses(operation), amazonCloudFormation);
+            trackedOperation.setTarget(targetContext.getTarget());
+            trackedOperation.setSpecFingerprint(specFingerprint);
+            completionTracker.track(trackedOperation);
+            return updateStatus(stack, operation == StackOperation.UPDATE ? "UPDATE_IN_PROGRESS" : "CREATE_IN_PROGRESS",
+                    journal(trackedOperation, stackId));
         }
         catch (Exception e) {
             log.error("Error while creating Stack", e);
-            StackStatus stackStatus = new StackStatus();
-            stackStatus.setStatus("ERROR");
-            stack.setStatus(stackStatus);
-            return UpdateControl.updateCustomResource(stack);
+            return updateStatus(stack, "ERROR");
+        }
+    }
+
+    private StatusSet<?> terminalStatuses(StackOperation operation) {
+        switch (operation) {
+            case CREATE:
+                return CREATE_TERMINAL_STATUSES;
+            case UPDATE:
+                return UPDATE_TERMINAL_STATUSES;
+            case CHANGE_SET:
+                return CHANGE_SET_TERMINAL_STATUSES;
+            default:
+                return DELETE_TERMINAL_STATUSES;
+        }
+    }
+
+    private OperationJournal journal(TrackedOperation operation, String stackId) {
+        OperationJournal journal = new OperationJournal();
+        journal.setOperation(operation.getOperation().name());
+        journal.setStackID(stackId);
+        journal.setChangeSetId(operation.getChangeSetId());
+        journal.setGeneration(operation.getGeneration());
+        journal.setSubmittedAt(operation.getSubmittedAt());
+        journal.setSpecFingerprint(operation.getSpecFingerprint());
+        journal.setEventCursor(operation.getLastEventId());
+        journal.setRegion(operation.getTarget().getRegion());
+        journal.setAssumeRoleARN(operation.getTarget().getRoleArn());
+        return journal;
+    }
+
+    private boolean resume(Stack stack) {
+        OperationJournal journal = stack.getStatus() == null ? null : stack.getStatus().getPendingOperation();
+        if(journal == null || journal.getOperation() == null) {
+            return false;
+        }
+        StackOperation operation = StackOperation.valueOf(journal.getOperation());
+        // Journals written before stacks had targets carry no region
+        AwsTarget target = journal.getRegion() == null ?
+                targetOf(stack.getSpec()) : new AwsTarget(journal.getRegion(), journal.getAssumeRoleARN());
+        TrackedOperation trackedOperation = new TrackedOperation(stack, operation, terminalStatuses(operation),
+                targetContext(target).getAmazonCloudFormation(), journal.getGeneration(), journal.getSubmittedAt());
+        trackedOperation.setTarget(target);
+        trackedOperation.setSpecFingerprint(journal.getSpecFingerprint());
+        trackedOperation.setChangeSetId(journal.getChangeSetId());
+        trackedOperation.setLastEventId(journal.getEventCursor());
+        log.info("Resuming {} submitted {} seconds ago", trackedOperation,
+                TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis() - journal.getSubmittedAt()));
+        completionTracker.track(trackedOperation);
+        return true;
+    }
+
+    private boolean deferResync(Stack stack) {
+        if(stack.getStatus() == null || stack.getStatus().getStatus() == null) {
+            return false;
+        }
+        long now = System.currentTimeMillis();
+        long remaining = startedAt + startupResyncWindow - now;
+        if(remaining <= 0) {
+            if(!deferredResyncs.isEmpty()) {
+                deferredResyncs.clear();
+            }
+            return false;
+        }
+        String uid = stack.getMetadata().getUid();
+        Long notBefore = deferredResyncs.get(uid);
+        if(notBefore == null) {
+            long delay = ThreadLocalRandom.current().nextLong(remaining);
+            deferredResyncs.put(uid, now + delay);
+            log.info("Deferring resync of stack {} by {} ms after startup", stack.getMetadata().getName(), delay);
+            completionTracker.retriggerAfter(uid, delay);
+            return true;
+        }
+        return now < notBefore;
+    }
+
+    private boolean isDriftCheckable(String uid) {
+        String namespacedName = knownStacks.get(uid);
+        return namespacedName != null && owns(namespacedName) && !completionTracker.isTracking(uid);
+    }
+
+    private UpdateControl<Stack> reportDrift(Stack stack, StackRequestModel request) {
+        if(driftDetector == null) {
+            return UpdateControl.noUpdate();
+        }
+        driftDetector.watch(stack.getMetadata().getUid(), stack.getMetadata().getName(),
+                targetContext(request.getTarget()).getAmazonCloudFormation());
+        Optional<DriftDetector.DriftResult> result = driftDetector.getResult(stack.getMetadata().getUid());
+        if(result.isEmpty()) {
+            return UpdateControl.noUpdate();
+        }
+        StackStatus status = stack.getStatus();
+        String checkedAt = Instant.ofEpochMilli(result.get().getCheckedAt()).toString();
+        if(Objects.equals(result.get().getStatus(), status.getDriftStatus()) && checkedAt.equals(status.getDriftCheckedAt())) {
+            return UpdateControl.noUpdate();
+        }
+        status.setDriftStatus(result.get().getStatus());
+        status.setDriftedResources(result.get().getDriftedResources());
+        status.setDriftCheckedAt(checkedAt);
+        return writeStatus(stack);
+    }
+
+    private void observeOutputs(Stack stack) {
+        StackStatus status = stack.getStatus();
+        Map<String, String> settledOutputs = null;
+        if(status != null && ("CREATED".equals(status.getStatus()) || "UPDATED".equals(status.getStatus()))) {
+            settledOutputs = status.getOutputs() == null ? Collections.emptyMap() : status.getOutputs();
+        }
+        dependencyGraph.observe(StackDependencyGraph.key(stack.getMetadata().getNamespace(), stack.getMetadata().getName()),
+                stack.getMetadata().getUid(), settledOutputs).forEach(dependent -> {
+            log.info("Outputs of stack {} changed, reconciling dependent {}", stack.getMetadata().getName(), dependent);
+            completionTracker.retrigger(dependent);
+        });
+    }
+
+    private Optional<Map<String, String>> resolveParameters(Stack stack) {
+        Map<String, String> parameters = new HashMap<>();
+        if(stack.getSpec().getParameters() != null) {
+            parameters.putAll(stack.getSpec().getParameters());
+        }
+        Map<String, String> parameterRefs = stack.getSpec().getParameterRefs() == null ?
+                Collections.emptyMap() : stack.getSpec().getParameterRefs();
+        Map<String, String[]> references = new HashMap<>();
+        parameterRefs.forEach((parameter, reference) -> references.put(parameter, parseReference(stack, reference)));
+        String stackKey = StackDependencyGraph.key(stack.getMetadata().getNamespace(), stack.getMetadata().getName());
+        List<String> cycle = dependencyGraph.link(stackKey, stack.getMetadata().getUid(),
+                references.values().stream().map(reference -> reference[0]).collect(Collectors.toSet()));
+        if(!cycle.isEmpty()) {
+            throw new IllegalArgumentException("Stack dependencies form a cycle: " + String.join(" -> ", cycle));
+        }
+        boolean resolved = true;
+        for(Map.Entry<String, String[]> reference : references.entrySet()) {
+            Map<String, String> upstreamOutputs = getUpstreamOutputs(reference.getValue()[0]);
+            String value = upstreamOutputs == null ? null : upstreamOutputs.get(reference.getValue()[1]);
+            if(value == null) {
+                log.info("Parameter {} of stack {} waits on output {} of {}", reference.getKey(),
+                        stack.getMetadata().getName(), reference.getValue()[1], reference.getValue()[0]);
+                resolved = false;
+            }
+            else {
+                parameters.put(reference.getKey(), value);
+            }
+        }
+        return resolved ? Optional.of(parameters) : Optional.empty();
+    }
+
+    private String[] parseReference(Stack stack, String reference) {
+        int separator = reference == null ? -1 : reference.lastIndexOf(':');
+        if(separator <= 0 || separator == reference.length() - 1) {
+            throw new IllegalArgumentException("Invalid parameter reference " + reference + ", expected [namespace/]stack:OutputKey");
+        }
+        String upstream = reference.substring(0, separator);
+        if(!upstream.contains("/")) {
+            upstream = StackDependencyGraph.key(stack.getMetadata().getNamespace(), upstream);
+        }
+        return new String[] {upstream, reference.substring(separator + 1)};
+    }
+
+    private Map<String, String> getUpstreamOutputs(String upstreamKey) {
+        if(!dependencyGraph.isObserved(upstreamKey)) {
+            int separator = upstreamKey.indexOf('/');
+            Stack upstream = kubernetesClient.customResources(Stack.class)
+                    .inNamespace(upstreamKey.substring(0, separator))
+                    .withName(upstreamKey.substring(separator + 1))
+                    .get();
+            if(upstream != null) {
+                observeOutputs(upstream);
+            }
+        }
+        return dependencyGraph.getOutputs(upstreamKey);
+    }
+
+    private boolean isUpToDate(Stack stack, String specFingerprint) {
+        StackStatus status = stack.getStatus();
+        return status != null &&
+                specFingerprint.equals(status.getSpecFingerprint()) &&
+                ("CREATED".equals(status.getStatus()) || "UPDATED".equals(status.getStatus()));
+    }
+
+    private UpdateControl<Stack> submitChangeSet(Stack stack, TemplateProcessor templateProcessor,
+                                                 AwsTargetContext targetContext, StackRequestModel request) {
+        String specFingerprint = request.getSpecFingerprint();
+        String changeSetName = String.format("cf-operator-%s-%d", specFingerprint.substring(0, 12), System.currentTimeMillis());
+        log.info("Before creating change set {} for stack: {}", changeSetName, stack.getMetadata().getName());
+        CreateChangeSetResult createChangeSetResult = templateProcessor.createChangeSet(
+                stack.getMetadata().getName(), changeSetName, request);
+        log.info("Create change set result: {}", createChangeSetResult);
+        if(createChangeSetResult == null) {
+            return updateStatus(stack, "ERROR");
+        }
+        TrackedOperation trackedOperation = new TrackedOperation(stack,
+                StackOperation.CHANGE_SET, CHANGE_SET_TERMINAL_STATUSES, targetContext.getAmazonCloudFormation());
+        trackedOperation.setTarget(targetContext.getTarget());
+        trackedOperation.setSpecFingerprint(specFingerprint);
+        trackedOperation.setChangeSetId(createChangeSetResult.getId());
+        completionTracker.track(trackedOperation);
+        return updateStatus(stack, stack.getStatus() == null ? null : stack.getStatus().getStatus(),
+                journal(trackedOperation, createChangeSetResult.getStackId()));
+    }
+
+    private UpdateControl<Stack> completeChangeSet(Stack stack, TrackedOperation operation) {
+        TemplateProcessor templateProcessor = newTemplateProcessor(targetContext(operation.getTarget()));
+        if(operation.getChangeSetStatus() == null) {
+            log.info("Change set {} of stack {} is gone, reconciling again", operation.getChangeSetId(), stack.getMetadata().getName());
+            completionTracker.retrigger(stack.getMetadata().getUid());
+            return updateStatus(stack, stack.getStatus() == null ? null : stack.getStatus().getStatus(), null);
+        }
+        log.info("Change set {} of stack {} finished with status {} ({})", operation.getChangeSetId(),
+                stack.getMetadata().getName(), operation.getChangeSetStatus(), operation.getChangeSetStatusReason());
+        if("CREATE_COMPLETE".equals(operation.getChangeSetStatus()) && operation.isChangeSetHasChanges()) {
+            ExecuteChangeSetResult executeChangeSetResult = templateProcessor.executeChangeSet(
+                    stack.getMetadata().getName(), operation.getChangeSetId());
+            if(executeChangeSetResult == null) {
+                return updateStatus(stack, "ERROR");
+            }
+            TrackedOperation update = new TrackedOperation(stack, StackOperation.UPDATE,
+                    UPDATE_TERMINAL_STATUSES, operation.getAmazonCloudFormation());
+            update.setTarget(operation.getTarget());
+            update.setSpecFingerprint(operation.getSpecFingerprint());
+            completionTracker.track(update);
+            return updateStatus(stack, "UPDATE_IN_PROGRESS", journal(update, stack.getStatus() == null ? null : stack.getStatus().getStackID()));
+        }
+        templateProcessor.deleteChangeSet(operation.getChangeSetId());
+        if("CREATE_COMPLETE".equals(operation.getChangeSetStatus()) || isNoChangesReason(operation.getChangeSetStatusReason())) {
+            return markUnchanged(stack, operation.getSpecFingerprint(), operation.getGeneration());
+        }
+        return updateStatus(stack, "ERROR");
+    }
+
+    private UpdateControl<Stack> markUnchanged(Stack stack, String specFingerprint, Long generation) {
+        log.info("Stack {} has no changes to apply", stack.getMetadata().getName());
+        StackStatus stackStatus = stack.getStatus() == null ? new StackStatus() : stack.getStatus();
+        if(!("CREATED".equals(stackStatus.getStatus()) || "UPDATED".equals(stackStatus.getStatus()))) {
+            stackStatus.setStatus("UPDATED");
         }
+        stackStatus.setSpecFingerprint(specFingerprint);
+        stackStatus.setObservedGeneration(generation);
+        stackStatus.setPendingOperation(null);
+        stack.setStatus(stackStatus);
+        return writeStatus(stack);
+    }
+
+    private boolean isNoChangesReason(String reason) {
+        return reason != null && (reason.contains("didn't contain changes") || reason.contains("No updates are to be performed"));
+    }
+
+    private TemplateProcessor newTemplateProcessor(AwsTargetContext targetContext) {
+        return new TemplateProcessor(targetContext.getAmazonCloudFormation(), targetContext.getStackIndex());
     }
 
     private boolean isEqual(Map<String, String> first, Map<String, String> second) {
+        if(first == null || second == null) {
+            return first == second;
+        }
         if (first.size() != second.size()) {
             return false;
         }
@@ -118,87 +741,208 @@ public class StackController implements ResourceController<Stack> {
                 .allMatch(e -> e.getValue().equals(second.get(e.getKey())));
     }
 
-    private UpdateControl<Stack> updateStatus(Stack stack, com.amazonaws.services.cloudformation.model.Stack cfStack, boolean isUpdateStackEvent) {
-        log.info("Before updated status for: {} and Update event {} ", stack.getMetadata().getName(), isUpdateStackEvent);
+    private UpdateControl<Stack> completeOperation(Stack stack, TrackedOperation operation) {
+        com.amazonaws.services.cloudformation.model.Stack cfStack = operation.getResult();
+        if(operation.getError() != null || cfStack == null) {
+            log.warn("Operation {} finished without a cloud formation stack", operation, operation.getError());
+            return updateStatus(stack, "ERROR");
+        }
+        log.info("Stack {} finished {} with status {}", stack.getMetadata().getName(), operation.getOperation(), cfStack.getStackStatus());
+        targetContext(operation.getTarget()).getStackIndex().record(cfStack.getStackName(), cfStack.getStackStatus());
+        String status;
+        if(SUCCESS_STATUSES.contains(cfStack.getStackStatus())) {
+            status = operation.getOperation() == StackOperation.UPDATE ? "UPDATED" : "CREATED";
+        }
+        else {
+            status = "ERROR";
+        }
+        return updateStatus(stack, cfStack, status, "ERROR".equals(status) ? null : operation.getSpecFingerprint(),
+                operation.getGeneration(), operation.getRecentEvents());
+    }
+
+    private UpdateControl<Stack> updateProgress(Stack stack, TrackedOperation operation) {
+        List<String> recentEvents = operation.getRecentEvents();
+        if(recentEvents.isEmpty() || stack.getStatus() == null || recentEvents.equals(stack.getStatus().getRecentEvents())) {
+            return UpdateControl.noUpdate();
+        }
+        stack.getStatus().setRecentEvents(recentEvents);
+        if(stack.getStatus().getPendingOperation() != null) {
+            stack.getStatus().getPendingOperation().setEventCursor(operation.getLastEventId());
+        }
+        return writeStatus(stack);
+    }
+
+    private UpdateControl<Stack> writeStatus(Stack stack) {
+        statusWriter.write(stack);
+        observeOutputs(stack);
+        return UpdateControl.noUpdate();
+    }
+
+    private UpdateControl<Stack> updateStatus(Stack stack, String status) {
+        return updateStatus(stack, status, null);
+    }
+
+    private UpdateControl<Stack> updateStatus(Stack stack, String status, OperationJournal pendingOperation) {
+        StackStatus stackStatus = stack.getStatus() == null ? new StackStatus() : stack.getStatus();
+        stackStatus.setStatus(status);
+        stackStatus.setPendingOperation(pendingOperation);
+        stack.setStatus(stackStatus);
+        return writeStatus(stack);
+    }
+
+    private UpdateControl<Stack> updateStatus(Stack stack, com.amazonaws.services.cloudformation.model.Stack cfStack,
+                                              String status, String specFingerprint, Long observedGeneration,
+                                              List<String> recentEvents) {
+        log.info("Before updated status for: {} and status {} ", stack.getMetadata().getName(), status);
         Map<String, String> outputs = convertToOutput(cfStack.getOutputs());
         log.info("Status Outputs "+ outputs);
-        if(!(isUpdateStackEvent ||
-                stack.getStatus() == null ||
-                cfStack.getStackId().equals(stack.getStatus().getStackID()) ||
-                isEqual(outputs, stack.getStatus().getOutputs()))) {
-            StackStatus status = new StackStatus();
-            status.setStackID(cfStack.getStackId());
-            status.setOutputs(outputs);
-            status.setStatus(isUpdateStackEvent ? "UPDATED" : "CREATED");
+        List<String> events = recentEvents.isEmpty() ? null : recentEvents;
+        StackStatus current = stack.getStatus();
+        if(current == null ||
+                !cfStack.getStackId().equals(current.getStackID()) ||
+                !status.equals(current.getStatus()) ||
+                !Objects.equals(specFingerprint, current.getSpecFingerprint()) ||
+                !Objects.equals(observedGeneration, current.getObservedGeneration()) ||
+                !Objects.equals(events, current.getRecentEvents()) ||
+                current.getPendingOperation() != null ||
+                !isEqual(outputs, current.getOutputs())) {
+            StackStatus stackStatus = new StackStatus();
+            stackStatus.setStackID(cfStack.getStackId());
+            stackStatus.setOutputs(outputs);
+            stackStatus.setStatus(status);
+            stackStatus.setSpecFingerprint(specFingerprint);
+            stackStatus.setObservedGeneration(observedGeneration);
+            stackStatus.setRecentEvents(events);
 //            stack.addFinalizer("stacks.cloudformation.mdstechinc.com/finalizer");
-            stack.setStatus(status);
-            return UpdateControl.updateCustomResource(stack);
+            stack.setStatus(stackStatus);
+            return writeStatus(stack);
         }
         return UpdateControl.noUpdate();
     }
 
     @Override
     public DeleteControl deleteResource(Stack stack, Context<Stack> context) {
+        long reconcileStartNanos = System.nanoTime();
+        DeleteControl deleteControl = delete(stack);
+        metrics.reconcileFinished(StackOperation.DELETE, reconcileStartNanos);
+        return deleteControl;
+    }
+
+    private DeleteControl delete(Stack stack) {
         log.info("Execution deleteResource for: {}", stack.getMetadata().getName());
-        AmazonCloudFormation amazonCloudFormation = createAWSClientSession();
-        TemplateProcessor templateProcessor = new TemplateProcessor(amazonCloudFormation, defaultTags, defaultCapabilities);
-        boolean isStackDeleted = templateProcessor.isStackDeletable(stack.getMetadata().getName());
-        log.info("Stack {} deletable : {} and metadata timestamp {}", stack.getMetadata().getName(), isStackDeleted, stack.getMetadata().getDeletionTimestamp());
-        if(!isStackDeleted) {
-            StackStatus stackStatus = new StackStatus();
-            stackStatus.setStatus("DELETED");
-            stack.setStatus(stackStatus);
+        String uid = stack.getMetadata().getUid();
+        Optional<TrackedOperation> completedOperation = completionTracker.takeCompleted(uid);
+        if(completedOperation.isPresent()) {
+            com.amazonaws.services.cloudformation.model.Stack cfStack = completedOperation.get().getResult();
+            String deleteStatus = cfStack == null ? "DELETE_COMPLETE" : cfStack.getStackStatus();
+            recordDuration(completedOperation.get());
+            log.info("Stack {} delete finished with status {}", stack.getMetadata().getName(), deleteStatus);
+            targetContext(completedOperation.get().getTarget()).getStackIndex()
+                    .record(stack.getMetadata().getName(), deleteStatus);
             stack.getMetadata().getFinalizers().stream().forEach(log::info);
+            forget(stack);
             return DeleteControl.DEFAULT_DELETE;
         }
+        if(completionTracker.isTracking(uid)) {
+            log.info("Stack {} delete in progress, waiting for completion", stack.getMetadata().getName());
+            return DeleteControl.NO_FINALIZER_REMOVAL;
+        }
+        if(!owns(stack)) {
+            log.debug("Stack {} belongs to another operator replica, leaving the delete to it", stack.getMetadata().getName());
+            return DeleteControl.NO_FINALIZER_REMOVAL;
+        }
+        if(!scheduler.admit(uid, stack.getMetadata().getNamespace(), ReconcileScheduler.Lane.DELETE)) {
+            log.info("Stack {} delete is queued", stack.getMetadata().getName());
+            return DeleteControl.NO_FINALIZER_REMOVAL;
+        }
+        AwsTargetContext targetContext = targetContext(targetOf(stack.getSpec()));
+        TemplateProcessor templateProcessor = newTemplateProcessor(targetContext);
         try {
+            boolean isStackDeleted = templateProcessor.isStackDeletable(stack.getMetadata().getName());
+            log.info("Stack {} deletable : {} and metadata timestamp {}", stack.getMetadata().getName(), isStackDeleted, stack.getMetadata().getDeletionTimestamp());
+            if(!isStackDeleted) {
+                stack.getMetadata().getFinalizers().stream().forEach(log::info);
+                forget(stack);
+                return DeleteControl.DEFAULT_DELETE;
+            }
             DeleteStackResult deleteStackResult = templateProcessor.deleteStack(stack.getMetadata().getName());
             log.info("Delete stack result: {}", deleteStackResult);
-            waitForCompletion(amazonCloudFormation, stack.getMetadata().getName(),
-                    Arrays.asList("DELETE_COMPLETE","DELETE_FAILED"));
-            StackStatus stackStatus = new StackStatus();
-            stackStatus.setStatus("DELETED");
-            stack.setStatus(stackStatus);
-            stack.getMetadata().getFinalizers().stream().forEach(log::info);
-            return DeleteControl.DEFAULT_DELETE;
+            TrackedOperation trackedOperation = new TrackedOperation(stack, StackOperation.DELETE,
+                    DELETE_TERMINAL_STATUSES, targetContext.getAmazonCloudFormation());
+            trackedOperation.setTarget(targetContext.getTarget());
+            completionTracker.track(trackedOperation);
+            return DeleteControl.NO_FINALIZER_REMOVAL;
         }
         catch (Exception e) {
             log.error("Error while deleting Stack", e);
-            StackStatus status = new StackStatus();
-            status.setStatus("ERROR");
-            stack.setStatus(status);
             return DeleteControl.DEFAULT_DELETE;
         }
+        finally {
+            scheduler.release(uid);
+        }
     }
 
-    private AmazonCloudFormation createAWSClientSession() {
-        if(assumeRoleArn != null) {
-            log.info("Establishing AWS session by using role assume role");
-            AWSSecurityTokenService sts_client = AWSSecurityTokenServiceClientBuilder.standard().withRegion(region).build();
-            Credentials credentials =
-                    sts_client.assumeRole(
-                            new AssumeRoleRequest()
-                                    .withRoleArn(assumeRoleArn)
-                                    .withRoleSessionName(roleSessionName))
-                            .getCredentials();
-            BasicSessionCredentials sessionCredentials = new BasicSessionCredentials(
-                    credentials.getAccessKeyId(),
-                    credentials.getSecretAccessKey(),
-                    credentials.getSessionToken());
-
-            return AmazonCloudFormationClientBuilder
-                    .standard()
-                    .withCredentials(new AWSStaticCredentialsProvider(sessionCredentials))
-                    .withRegion(region)
-                    .build();
+    private void recordDuration(TrackedOperation operation) {
+        if(operation.getOperation() != StackOperation.CHANGE_SET) {
+            scheduler.recordDuration(operation.getResourceUid(), System.currentTimeMillis() - operation.getSubmittedAt());
         }
-        else {
-            log.info("Establishing AWS session using Service account role");
-            return AmazonCloudFormationClientBuilder
-                    .standard()
-                    .withCredentials(WebIdentityTokenCredentialsProvider.create())
-                    .withRegion(region)
-                    .build();
+    }
+
+    private void forget(Stack stack) {
+        String stackKey = StackDependencyGraph.key(stack.getMetadata().getNamespace(), stack.getMetadata().getName());
+        dependencyGraph.retract(stackKey).forEach(completionTracker::retrigger);
+        dependencyGraph.remove(stackKey);
+        knownStacks.remove(stack.getMetadata().getUid());
+        requestModels.remove(stack.getMetadata().getUid());
+        statusWriter.forget(stack.getMetadata().getUid());
+        scheduler.forget(stack.getMetadata().getUid());
+        if(driftDetector != null) {
+            driftDetector.forget(stack.getMetadata().getUid());
+        }
+    }
+
+    private AwsTarget targetOf(StackSpec spec) {
+        if(spec == null || (spec.getRegion() == null && spec.getAssumeRoleARN() == null)) {
+            return defaultTarget;
+        }
+        return new AwsTarget(spec.getRegion() == null ? region : spec.getRegion(),
+                spec.getAssumeRoleARN() == null ? assumeRoleArn : spec.getAssumeRoleARN());
+    }
+
+    private AwsTargetContext targetContext(AwsTarget target) {
+        AwsTargetContext targetContext = targetContexts.get(target);
+        if(targetContext != null) {
+            return targetContext;
+        }
+        return targetContexts.computeIfAbsent(target, key -> {
+            log.info("Adding AWS target {}, {} targets in use", key, targetContexts.size() + 1);
+            metrics.gauge(String.format("cf_operator_aws_target_calls_in_flight{account=\"%s\",region=\"%s\"}",
+                    key.getAccountId(), key.getRegion()), () -> callExecutor.getInFlight(key));
+            AwsTargetContext context = new AwsTargetContext(key, clientPool.getCloudFormation(key), stackIndexMaxAge);
+            scheduleIndexRefresh(key, context.getStackIndex());
+            log.debug("AWS client pool hits {} misses {} credential refreshes {} failures {}",
+                    clientPool.getHits(), clientPool.getMisses(), clientPool.getRefreshes(), clientPool.getRefreshFailures());
+            return context;
+        });
+    }
+
+    /**
+     * Seeds the stack index of a new target in the background and rescans it on a fixed
+     * delay, so stacks created, changed or deleted outside the operator are indexed before
+     * their entries age out.
+     */
+    private void scheduleIndexRefresh(AwsTarget target, StackIndex stackIndex) {
+        stackIndexRefresher.execute(() -> refreshIndex(target, stackIndex::seed));
+        stackIndexRefresher.scheduleWithFixedDelay(() -> refreshIndex(target, stackIndex::refresh),
+                stackIndexRefreshInterval, stackIndexRefreshInterval, TimeUnit.MILLISECONDS);
+    }
+
+    private void refreshIndex(AwsTarget target, Runnable scan) {
+        try {
+            scan.run();
+        }
+        catch (RuntimeException ex) {
+            log.warn("Stack index scan of {} failed, stacks are looked up one by one until the next scan", target, ex);
         }
     }
 
@@ -220,37 +964,6 @@ public class StackController implements ResourceController<Stack> {
         return Arrays.stream(capabilities.split(",")).collect(Collectors.toList());
     }
 
-    private com.amazonaws.services.cloudformation.model.Stack waitForCompletion(AmazonCloudFormation amazonCloudFormation,
-                                     String stackName,
-                                     List<String> waitStatuses) throws InterruptedException {
-        DescribeStacksRequest wait = new DescribeStacksRequest();
-        wait.setStackName(stackName);
-        log.info("Waiting for cloud formation stack completion");
-        Boolean completed = false;
-        com.amazonaws.services.cloudformation.model.Stack lastStack = null;
-        while (!completed) {
-            List<com.amazonaws.services.cloudformation.model.Stack> stacks = amazonCloudFormation.describeStacks(wait).getStacks();
-            if (stacks.isEmpty())
-            {
-                completed   = true;
-            }
-            else {
-                for (com.amazonaws.services.cloudformation.model.Stack stack : stacks) {
-                    if (waitStatuses.contains(stack.getStackStatus())) {
-                        completed = true;
-                        lastStack = stack;
-                    }
-                }
-            }
-            log.debug("Waiting for cloudformation stack completion...");
-            if (!completed) {
-                Thread.sleep(60000);
-            }
-        }
-        log.info("Cloud formation process is completed");
-        return lastStack;
-    }
-
     private Map<String, String> convertToOutput(List<Output> outputs) {
         if(outputs == null || outputs.isEmpty()) {
             return null;
@@ -0,0 +1,125 @@
+package com.mdstech.opearator.cloudformation;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+/**
+ * Dependency graph between Stack resources built from their parameterRefs. Nodes are keyed
+ * by namespace/name. The graph keeps the last outputs observed for every stack so dependents
+ * are retriggered only when an upstream's outputs change. Only a settled stack publishes
+ * outputs, and its last published outputs stay in place while it is updating or failed,
+ * until they are retracted when the stack is deleted. Every change of published outputs bumps a version, so values
+ * derived from outputs can tell whether they are still current.
+ */
+public class StackDependencyGraph {
+
+    private final Map<String, Set<String>> upstreams = new ConcurrentHashMap<>();
+    private final Map<String, Set<String>> dependents = new ConcurrentHashMap<>();
+    private final Map<String, String> uids = new ConcurrentHashMap<>();
+    private final Map<String, Map<String, String>> outputs = new ConcurrentHashMap<>();
+    private final AtomicLong outputsVersion = new AtomicLong();
+
+    public static String key(String namespace, String name) {
+        return namespace + "/" + name;
+    }
+
+    /**
+     * Replaces the upstream edges of a stack and returns the cycle it closes, or an empty
+     * list when the graph stays acyclic.
+     */
+    public synchronized List<String> link(String stackKey, String uid, Set<String> upstreamKeys) {
+        uids.put(stackKey, uid);
+        Set<String> previous = upstreams.put(stackKey, new HashSet<>(upstreamKeys));
+        if(previous != null) {
+            previous.forEach(upstream -> dependents.getOrDefault(upstream, Collections.emptySet()).remove(stackKey));
+        }
+        upstreamKeys.forEach(upstream -> dependents.computeIfAbsent(upstream, key -> ConcurrentHashMap.newKeySet()).add(stackKey));
+        return findCycle(stackKey);
+    }
+
+    /**
+     * Records the published outputs of a stack and returns the uids of the dependents to
+     * reconcile again when they changed. A stack that is not settled passes null and keeps
+     * its last published outputs.
+     */
+    public Set<String> observe(String stackKey, String uid, Map<String, String> settledOutputs) {
+        uids.put(stackKey, uid);
+        if(settledOutputs == null) {
+            return Collections.emptySet();
+        }
+        return changed(stackKey, outputs.put(stackKey, settledOutputs), settledOutputs);
+    }
+
+    /**
+     * Withdraws the outputs of a deleted stack and returns the uids of the dependents to
+     * reconcile again.
+     */
+    public Set<String> retract(String stackKey) {
+        return changed(stackKey, outputs.remove(stackKey), null);
+    }
+
+    private Set<String> changed(String stackKey, Map<String, String> previous, Map<String, String> current) {
+        if(Objects.equals(previous, current)) {
+            return Collections.emptySet();
+        }
+        outputsVersion.incrementAndGet();
+        return dependents.getOrDefault(stackKey, Collections.emptySet()).stream()
+                .map(uids::get)
+                .filter(Objects::nonNull)
+                .collect(Collectors.toSet());
+    }
+
+    public Map<String, String> getOutputs(String stackKey) {
+        return outputs.get(stackKey);
+    }
+
+    public long getOutputsVersion() {
+        return outputsVersion.get();
+    }
+
+    public boolean isObserved(String stackKey) {
+        return uids.containsKey(stackKey);
+    }
+
+    public synchronized void remove(String stackKey) {
+        Set<String> previous = upstreams.remove(stackKey);
+        if(previous != null) {
+            previous.forEach(upstream -> dependents.getOrDefault(upstream, Collections.emptySet()).remove(stackKey));
+        }
+        outputs.remove(stackKey);
+        uids.remove(stackKey);
+    }
+
+    private List<String> findCycle(String start) {
+        Deque<List<String>> paths = new ArrayDeque<>();
+        paths.push(Collections.singletonList(start));
+        Set<String> visited = new HashSet<>();
+        while(!paths.isEmpty()) {
+            List<String> path = paths.pop();
+            String last = path.get(path.size() - 1);
+            for(String upstream : upstreams.getOrDefault(last, Collections.emptySet())) {
+                if(upstream.equals(start)) {
+                    List<String> cycle = new ArrayList<>(path);
+                    cycle.add(start);
+                    return cycle;
+                }
+                if(visited.add(upstream)) {
+                    List<String> next = new ArrayList<>(path);
+                    next.add(upstream);
+                    paths.push(next);
+                }
+            }
+        }
+        return Collections.emptyList();
+    }
+}
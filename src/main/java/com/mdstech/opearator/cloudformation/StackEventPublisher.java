@@ -0,0 +1,76 @@
+package com.mdstech.opearator.cloudformation;
+
+import com.amazonaws.services.cloudformation.model.StackEvent;
+import io.fabric8.kubernetes.api.model.Event;
+import io.fabric8.kubernetes.api.model.EventBuilder;
+import io.fabric8.kubernetes.client.KubernetesClient;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.stream.Collectors;
+
+/**
+ * Publishes each batch of new CloudFormation events for a stack as one Kubernetes Event
+ * on the owning Stack resource.
+ */
+public class StackEventPublisher {
+
+    private static final Logger log = LoggerFactory.getLogger(StackEventPublisher.class);
+    private static final int MAX_LINES = 10;
+
+    private final KubernetesClient client;
+    private final ExecutorService executor;
+
+    public StackEventPublisher(KubernetesClient client, boolean virtualThreads) {
+        this.client = client;
+        this.executor = CallerThreads.pool("stack-event-publisher-", 1, virtualThreads);
+    }
+
+    public void publish(TrackedOperation operation, List<StackEvent> events) {
+        List<String> lines = events.stream().map(StackEventStreamer::format).collect(Collectors.toList());
+        boolean failed = events.stream().anyMatch(event -> event.getResourceStatus() != null && event.getResourceStatus().contains("FAILED"));
+        StringBuilder message = new StringBuilder(String.join("\n", lines.subList(0, Math.min(MAX_LINES, lines.size()))));
+        if(lines.size() > MAX_LINES) {
+            message.append("\n... and ").append(lines.size() - MAX_LINES).append(" more");
+        }
+        String now = Instant.now().truncatedTo(ChronoUnit.SECONDS).toString();
+        Event event = new EventBuilder()
+                .withNewMetadata()
+                    .withName(String.format("%s.%x", operation.getStackName(), System.nanoTime()))
+                    .withNamespace(operation.getNamespace())
+                .endMetadata()
+                .withNewInvolvedObject()
+                    .withApiVersion("cloudformation.mdstechinc.com/v1alpha1")
+                    .withKind("Stack")
+                    .withName(operation.getStackName())
+                    .withNamespace(operation.getNamespace())
+                    .withUid(operation.getResourceUid())
+                .endInvolvedObject()
+                .withType(failed ? "Warning" : "Normal")
+                .withReason(failed ? "StackResourceFailed" : "StackProgress")
+                .withMessage(message.toString())
+                .withCount(events.size())
+                .withFirstTimestamp(now)
+                .withLastTimestamp(now)
+                .withNewSource()
+                    .withComponent("cf-stack-operator")
+                .endSource()
+                .build();
+        executor.execute(() -> {
+            try {
+                client.v1().events().inNamespace(operation.getNamespace()).create(event);
+            }
+            catch (RuntimeException ex) {
+                log.warn("Unable to publish events for {}", operation, ex);
+            }
+        });
+    }
+
+    public void close() {
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,85 @@
+package com.mdstech.opearator.cloudformation;
+
+import com.amazonaws.services.cloudformation.model.AmazonCloudFormationException;
+import com.amazonaws.services.cloudformation.model.DescribeStackEventsRequest;
+import com.amazonaws.services.cloudformation.model.DescribeStackEventsResult;
+import com.amazonaws.services.cloudformation.model.StackEvent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+
+/**
+ * Reads only the stack events newer than the last one seen for a tracked operation.
+ * DescribeStackEvents returns newest first, so paging stops at the cursor. Returns the
+ * number of DescribeStackEvents calls made, so the caller can account for them.
+ */
+public class StackEventStreamer {
+
+    private static final Logger log = LoggerFactory.getLogger(StackEventStreamer.class);
+    private static final long CLOCK_SKEW_MILLIS = TimeUnit.SECONDS.toMillis(5);
+    private static final int MAX_REASON_LENGTH = 120;
+    private static final DateTimeFormatter TIME = DateTimeFormatter.ofPattern("HH:mm:ss").withZone(ZoneOffset.UTC);
+
+    private final int recentEventLimit;
+    private final BiConsumer<TrackedOperation, List<StackEvent>> onEvents;
+
+    public StackEventStreamer(int recentEventLimit, BiConsumer<TrackedOperation, List<StackEvent>> onEvents) {
+        this.recentEventLimit = recentEventLimit;
+        this.onEvents = onEvents;
+    }
+
+    public int poll(TrackedOperation operation) {
+        List<StackEvent> events = new ArrayList<>();
+        int calls = 0;
+        try {
+            String nextToken = null;
+            pages:
+            do {
+                DescribeStackEventsResult result = operation.getAmazonCloudFormation().describeStackEvents(
+                        new DescribeStackEventsRequest().withStackName(operation.getStackName()).withNextToken(nextToken));
+                calls++;
+                for(StackEvent event : result.getStackEvents()) {
+                    if(event.getEventId().equals(operation.getLastEventId()) ||
+                            event.getTimestamp().getTime() < operation.getSubmittedAt() - CLOCK_SKEW_MILLIS) {
+                        break pages;
+                    }
+                    events.add(event);
+                }
+                nextToken = result.getNextToken();
+            } while(nextToken != null);
+        }
+        catch (AmazonCloudFormationException ex) {
+            if(!StackStatusPoller.isMissingStack(ex)) {
+                log.warn("Unable to read stack events for {}", operation, ex);
+            }
+            return calls + 1;
+        }
+        if(events.isEmpty()) {
+            return calls;
+        }
+        operation.setLastEventId(events.get(0).getEventId());
+        Collections.reverse(events);
+        events.forEach(event -> operation.addRecentEvent(format(event), recentEventLimit));
+        onEvents.accept(operation, events);
+        return calls;
+    }
+
+    static String format(StackEvent event) {
+        StringBuilder line = new StringBuilder()
+                .append(TIME.format(event.getTimestamp().toInstant())).append(' ')
+                .append(event.getLogicalResourceId()).append(' ')
+                .append(event.getResourceStatus());
+        String reason = event.getResourceStatusReason();
+        if(reason != null && !reason.isEmpty()) {
+            line.append(": ").append(reason.length() > MAX_REASON_LENGTH ? reason.substring(0, MAX_REASON_LENGTH) + "..." : reason);
+        }
+        return line.toString();
+    }
+}
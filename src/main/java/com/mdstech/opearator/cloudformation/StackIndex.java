@@ -0,0 +1,124 @@
+package com.mdstech.opearator.cloudformation;
+
+import com.amazonaws.services.cloudformation.AmazonCloudFormation;
+import com.amazonaws.services.cloudformation.model.AmazonCloudFormationException;
+import com.amazonaws.services.cloudformation.model.DescribeStacksRequest;
+import com.amazonaws.services.cloudformation.model.ListStacksRequest;
+import com.amazonaws.services.cloudformation.model.ListStacksResult;
+import com.amazonaws.services.cloudformation.model.StackSummary;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Name to status index of the stacks in one account and region. A full paginated
+ * ListStacks scan seeds the index and is repeated periodically to pick up stacks changed
+ * outside the operator, the operator records the operations it submits and observes, and
+ * single stacks missing a fresh entry are looked up with DescribeStacks.
+ */
+public class StackIndex {
+
+    private static final Logger log = LoggerFactory.getLogger(StackIndex.class);
+
+    private final AmazonCloudFormation amazonCloudFormation;
+    private final long maxAgeMillis;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private volatile long scannedAt;
+
+    public StackIndex(AmazonCloudFormation amazonCloudFormation, long maxAgeMillis) {
+        this.amazonCloudFormation = amazonCloudFormation;
+        this.maxAgeMillis = maxAgeMillis;
+    }
+
+    public String getStatus(String stackName) {
+        long now = System.currentTimeMillis();
+        Entry entry = entries.get(stackName);
+        if(entry != null && now - entry.observedAt < maxAgeMillis) {
+            return entry.status;
+        }
+        if(entry == null && now - scannedAt < maxAgeMillis) {
+            return null;
+        }
+        return describe(stackName);
+    }
+
+    public void record(String stackName, String status) {
+        entries.put(stackName, new Entry(status, System.currentTimeMillis()));
+    }
+
+    /**
+     * Scans the stacks unless a scan has already completed, so concurrent seeds of the same
+     * target run one scan.
+     */
+    public synchronized void seed() {
+        if(scannedAt == 0) {
+            refresh();
+        }
+    }
+
+    public synchronized void refresh() {
+        long startedAt = System.currentTimeMillis();
+        Map<String, StackSummary> latest = new HashMap<>();
+        String nextToken = null;
+        int pages = 0;
+        do {
+            ListStacksResult listStacksResult = amazonCloudFormation.listStacks(new ListStacksRequest().withNextToken(nextToken));
+            pages++;
+            for(StackSummary summary : listStacksResult.getStackSummaries()) {
+                latest.merge(summary.getStackName(), summary,
+                        (first, second) -> lastActivity(first) >= lastActivity(second) ? first : second);
+            }
+            nextToken = listStacksResult.getNextToken();
+        } while(nextToken != null);
+        latest.forEach((name, summary) -> entries.merge(name, new Entry(summary.getStackStatus(), startedAt),
+                (current, scanned) -> current.observedAt > startedAt ? current : scanned));
+        entries.entrySet().removeIf(entry -> entry.getValue().observedAt <= startedAt && !latest.containsKey(entry.getKey()));
+        scannedAt = startedAt;
+        log.info("Indexed {} stacks from {} ListStacks pages", latest.size(), pages);
+    }
+
+    private String describe(String stackName) {
+        String status = null;
+        try {
+            List<com.amazonaws.services.cloudformation.model.Stack> stacks = amazonCloudFormation
+                    .describeStacks(new DescribeStacksRequest().withStackName(stackName))
+                    .getStacks();
+            if(!stacks.isEmpty()) {
+                status = stacks.get(0).getStackStatus();
+            }
+        }
+        catch (AmazonCloudFormationException ex) {
+            if(!StackStatusPoller.isMissingStack(ex)) {
+                throw ex;
+            }
+        }
+        log.info("Stack {} looked up with status {}", stackName, status);
+        record(stackName, status);
+        return status;
+    }
+
+    static long lastActivity(StackSummary summary) {
+        long activity = 0;
+        for(Date date : new Date[] {summary.getCreationTime(), summary.getLastUpdatedTime(), summary.getDeletionTime()}) {
+            if(date != null) {
+                activity = Math.max(activity, date.getTime());
+            }
+        }
+        return activity;
+    }
+
+    private static class Entry {
+        private final String status;
+        private final long observedAt;
+
+        private Entry(String status, long observedAt) {
+            this.status = status;
+            this.observedAt = observedAt;
+        }
+    }
+}
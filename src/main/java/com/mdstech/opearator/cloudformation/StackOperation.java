@@ -0,0 +1,8 @@
+package com.mdstech.opearator.cloudformation;
+
+public enum StackOperation {
+    CREATE,
+    UPDATE,
+    CHANGE_SET,
+    DELETE
+}
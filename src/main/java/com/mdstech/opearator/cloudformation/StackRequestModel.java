@@ -0,0 +1,113 @@
+package com.mdstech.opearator.cloudformation;
+
+import com.amazonaws.services.cloudformation.model.Parameter;
+import com.amazonaws.services.cloudformation.model.Tag;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Everything a CloudFormation request needs for one generation of a Stack spec, resolved
+ * and converted once: target, template, parameters with their references filled in, the
+ * SDK parameter and tag lists with the default tags merged, and the spec fingerprint. A
+ * model stays current until the generation changes or, for a stack with parameterRefs,
+ * until any published outputs change.
+ */
+public final class StackRequestModel {
+
+    private final Long generation;
+    private final long outputsVersion;
+    private final boolean dependsOnOutputs;
+    private final AwsTarget target;
+    private final CachedTemplate template;
+    private final Map<String, String> parameters;
+    private final String roleARN;
+    private final List<Parameter> stackParameters;
+    private final List<Tag> stackTags;
+    private final List<String> capabilities;
+    private final String specFingerprint;
+
+    private StackRequestModel(Stack stack, AwsTarget target, CachedTemplate template, Map<String, String> parameters,
+                              long outputsVersion, List<Tag> defaultTags, Collection<String> defaultCapabilities) {
+        StackSpec spec = stack.getSpec();
+        this.generation = stack.getMetadata().getGeneration();
+        this.outputsVersion = outputsVersion;
+        this.dependsOnOutputs = spec.getParameterRefs() != null && !spec.getParameterRefs().isEmpty();
+        this.target = target;
+        this.template = template;
+        this.parameters = Collections.unmodifiableMap(new HashMap<>(parameters));
+        this.roleARN = spec.getCustomRoleARN();
+        this.stackParameters = parameters.isEmpty() ? null : Collections.unmodifiableList(toParameters(parameters));
+        this.stackTags = Collections.unmodifiableList(toTags(defaultTags, spec.getTags()));
+        this.capabilities = defaultCapabilities == null ? null : List.copyOf(defaultCapabilities);
+        this.specFingerprint = SpecFingerprint.compute(spec, parameters, template.getHash(), defaultCapabilities);
+    }
+
+    public static StackRequestModel build(Stack stack, AwsTarget target, CachedTemplate template, Map<String, String> parameters,
+                                          long outputsVersion, List<Tag> defaultTags, Collection<String> defaultCapabilities) {
+        return new StackRequestModel(stack, target, template, parameters, outputsVersion, defaultTags, defaultCapabilities);
+    }
+
+    public boolean isCurrent(Stack stack, long currentOutputsVersion) {
+        return Objects.equals(generation, stack.getMetadata().getGeneration()) &&
+                (!dependsOnOutputs || outputsVersion == currentOutputsVersion);
+    }
+
+    public Long getGeneration() {
+        return generation;
+    }
+
+    public AwsTarget getTarget() {
+        return target;
+    }
+
+    public CachedTemplate getTemplate() {
+        return template;
+    }
+
+    public Map<String, String> getParameters() {
+        return parameters;
+    }
+
+    public String getRoleARN() {
+        return roleARN;
+    }
+
+    public List<Parameter> getStackParameters() {
+        return stackParameters;
+    }
+
+    public List<Tag> getStackTags() {
+        return stackTags;
+    }
+
+    public List<String> getCapabilities() {
+        return capabilities;
+    }
+
+    public String getSpecFingerprint() {
+        return specFingerprint;
+    }
+
+    private static List<Parameter> toParameters(Map<String, String> parameters) {
+        List<Parameter> stackParameters = new ArrayList<>(parameters.size());
+        parameters.forEach((key, value) -> stackParameters.add(new Parameter().withParameterKey(key).withParameterValue(value)));
+        return stackParameters;
+    }
+
+    private static List<Tag> toTags(List<Tag> defaultTags, Map<String, String> tags) {
+        List<Tag> stackTags = new ArrayList<>((defaultTags == null ? 0 : defaultTags.size()) + (tags == null ? 0 : tags.size()));
+        if(defaultTags != null) {
+            stackTags.addAll(defaultTags);
+        }
+        if(tags != null) {
+            tags.forEach((key, value) -> stackTags.add(new Tag().withKey(key).withValue(value)));
+        }
+        return stackTags;
+    }
+}
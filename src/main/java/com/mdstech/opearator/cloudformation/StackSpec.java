@@ -5,9 +5,12 @@ import java.util.Map;
 public class StackSpec {
     private Map<String, String> tags;
     private Map<String, String> parameters;
-//    private String template;
+    private Map<String, String> parameterRefs;
+    private String template;
     private String templateURL;
     private String customRoleARN;
+    private String region;
+    private String assumeRoleARN;
 
     public Map<String, String> getTags() {
         return tags;
@@ -25,13 +28,21 @@ public class StackSpec {
         this.parameters = parameters;
     }
 
-//    public String getTemplate() {
-//        return template;
-//    }
-//
-//    public void setTemplate(String template) {
-//        this.template = template;
-//    }
+    public Map<String, String> getParameterRefs() {
+        return parameterRefs;
+    }
+
+    public void setParameterRefs(Map<String, String> parameterRefs) {
+        this.parameterRefs = parameterRefs;
+    }
+
+    public String getTemplate() {
+        return template;
+    }
+
+    public void setTemplate(String template) {
+        this.template = template;
+    }
 
     public String getCustomRoleARN() {
         return customRoleARN;
@@ -41,6 +52,22 @@ public class StackSpec {
         this.customRoleARN = customRoleARN;
     }
 
+    public String getRegion() {
+        return region;
+    }
+
+    public void setRegion(String region) {
+        this.region = region;
+    }
+
+    public String getAssumeRoleARN() {
+        return assumeRoleARN;
+    }
+
+    public void setAssumeRoleARN(String assumeRoleARN) {
+        this.assumeRoleARN = assumeRoleARN;
+    }
+
     public String getTemplateURL() {
         return templateURL;
     }
@@ -1,11 +1,19 @@
 package com.mdstech.opearator.cloudformation;
 
+import java.util.List;
 import java.util.Map;
 
 public class StackStatus {
     private String stackID;
     private String status;
     private Map<String, String> outputs;
+    private String specFingerprint;
+    private Long observedGeneration;
+    private List<String> recentEvents;
+    private OperationJournal pendingOperation;
+    private String driftStatus;
+    private Integer driftedResources;
+    private String driftCheckedAt;
 
     public String getStackID() {
         return stackID;
@@ -23,6 +31,14 @@ public class StackStatus {
         this.outputs = outputs;
     }
 
+    public Long getObservedGeneration() {
+        return observedGeneration;
+    }
+
+    public void setObservedGeneration(Long observedGeneration) {
+        this.observedGeneration = observedGeneration;
+    }
+
     public String getStatus() {
         return status;
     }
@@ -30,4 +46,52 @@ public class StackStatus {
     public void setStatus(String status) {
         this.status = status;
     }
+
+    public String getSpecFingerprint() {
+        return specFingerprint;
+    }
+
+    public void setSpecFingerprint(String specFingerprint) {
+        this.specFingerprint = specFingerprint;
+    }
+
+    public List<String> getRecentEvents() {
+        return recentEvents;
+    }
+
+    public void setRecentEvents(List<String> recentEvents) {
+        this.recentEvents = recentEvents;
+    }
+
+    public OperationJournal getPendingOperation() {
+        return pendingOperation;
+    }
+
+    public void setPendingOperation(OperationJournal pendingOperation) {
+        this.pendingOperation = pendingOperation;
+    }
+
+    public String getDriftStatus() {
+        return driftStatus;
+    }
+
+    public void setDriftStatus(String driftStatus) {
+        this.driftStatus = driftStatus;
+    }
+
+    public Integer getDriftedResources() {
+        return driftedResources;
+    }
+
+    public void setDriftedResources(Integer driftedResources) {
+        this.driftedResources = driftedResources;
+    }
+
+    public String getDriftCheckedAt() {
+        return driftCheckedAt;
+    }
+
+    public void setDriftCheckedAt(String driftCheckedAt) {
+        this.driftCheckedAt = driftCheckedAt;
+    }
 }
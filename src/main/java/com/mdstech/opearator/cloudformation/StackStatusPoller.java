@@ -0,0 +1,312 @@
+package com.mdstech.opearator.cloudformation;
+
+import com.amazonaws.services.cloudformation.AmazonCloudFormation;
+import com.amazonaws.services.cloudformation.model.AmazonCloudFormationException;
+import com.amazonaws.services.cloudformation.model.DescribeChangeSetRequest;
+import com.amazonaws.services.cloudformation.model.DescribeChangeSetResult;
+import com.amazonaws.services.cloudformation.model.DescribeStacksRequest;
+import com.amazonaws.services.cloudformation.model.ListStacksRequest;
+import com.amazonaws.services.cloudformation.model.ListStacksResult;
+import com.amazonaws.services.cloudformation.model.StackSummary;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.stream.Collectors;
+
+/**
+ * Single background poller for every stack the operator is waiting on. Operations sharing
+ * an AWS client are resolved together by one paginated ListStacks sweep whenever that is
+ * cheaper than describing each stack. Each operation is polled quickly right after submit
+ * and backs off exponentially up to the configured maximum interval. Every AWS client, and
+ * so every account and region, is swept on its own thread, and a client whose last sweep is
+ * still running is skipped, so a throttled region never holds up the others.
+ */
+public class StackStatusPoller {
+
+    private static final Logger log = LoggerFactory.getLogger(StackStatusPoller.class);
+    private static final long CLOCK_SKEW_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+    private final Set<TrackedOperation> waiting = ConcurrentHashMap.newKeySet();
+    private final Map<AmazonCloudFormation, Integer> listStacksPages = new ConcurrentHashMap<>();
+    private final Set<AmazonCloudFormation> sweeping = ConcurrentHashMap.newKeySet();
+    private final BiConsumer<TrackedOperation, com.amazonaws.services.cloudformation.model.Stack> onCompleted;
+    private final StackEventStreamer eventStreamer;
+    private final long minPollIntervalMillis;
+    private final long maxPollIntervalMillis;
+    private final ScheduledExecutorService scheduler;
+    private final ExecutorService sweepers;
+    private final AtomicLong apiCalls = new AtomicLong();
+    private final AtomicLong perStackCalls = new AtomicLong();
+
+    public StackStatusPoller(long minPollIntervalMillis,
+                             long maxPollIntervalMillis,
+                             StackEventStreamer eventStreamer,
+                             boolean virtualThreads,
+                             BiConsumer<TrackedOperation, com.amazonaws.services.cloudformation.model.Stack> onCompleted) {
+        this.minPollIntervalMillis = minPollIntervalMillis;
+        this.maxPollIntervalMillis = Math.max(minPollIntervalMillis, maxPollIntervalMillis);
+        this.eventStreamer = eventStreamer;
+        this.onCompleted = onCompleted;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "stack-status-poller");
+            thread.setDaemon(true);
+            return thread;
+        });
+        ThreadFactory sweeperThreads = CallerThreads.factory("stack-status-sweep-", virtualThreads);
+        this.sweepers = virtualThreads ?
+                Executors.newThreadPerTaskExecutor(sweeperThreads) : Executors.newCachedThreadPool(sweeperThreads);
+        this.scheduler.scheduleWithFixedDelay(this::sweep, minPollIntervalMillis, minPollIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public void register(TrackedOperation operation) {
+        operation.setPollInterval(minPollIntervalMillis);
+        operation.setNextPollAt(System.currentTimeMillis() + minPollIntervalMillis);
+        waiting.add(operation);
+    }
+
+    public void schedule(Runnable task, long delayMillis) {
+        scheduler.schedule(task, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public void unregister(TrackedOperation operation) {
+        waiting.remove(operation);
+    }
+
+    public int getWaitingCount() {
+        return waiting.size();
+    }
+
+    public long getApiCalls() {
+        return apiCalls.get();
+    }
+
+    public long getSavedCalls() {
+        return perStackCalls.get() - apiCalls.get();
+    }
+
+    private void sweep() {
+        long now = System.currentTimeMillis();
+        waiting.stream()
+                .collect(Collectors.groupingBy(TrackedOperation::getAmazonCloudFormation))
+                .forEach((amazonCloudFormation, operations) -> {
+                    if(operations.stream().noneMatch(operation -> operation.getNextPollAt() <= now)) {
+                        return;
+                    }
+                    if(!sweeping.add(amazonCloudFormation)) {
+                        log.debug("Previous sweep of {} waiting stacks is still running, skipping", operations.size());
+                        return;
+                    }
+                    sweepers.execute(() -> {
+                        try {
+                            sweep(amazonCloudFormation, operations, now);
+                        }
+                        finally {
+                            sweeping.remove(amazonCloudFormation);
+                        }
+                    });
+                });
+    }
+
+    private void sweep(AmazonCloudFormation amazonCloudFormation, List<TrackedOperation> waitingOperations, long now) {
+        waitingOperations.stream()
+                .filter(operation -> operation.getOperation() == StackOperation.CHANGE_SET && operation.getNextPollAt() <= now)
+                .forEach(operation -> describeChangeSet(operation, now));
+        List<TrackedOperation> operations = waitingOperations.stream()
+                .filter(operation -> operation.getOperation() != StackOperation.CHANGE_SET)
+                .collect(Collectors.toList());
+        List<TrackedOperation> due = operations.stream()
+                .filter(operation -> operation.getNextPollAt() <= now)
+                .collect(Collectors.toList());
+        if(due.isEmpty()) {
+            return;
+        }
+        if(eventStreamer != null) {
+            due.stream()
+                    .filter(operation -> operation.getNextEventPollAt() <= now)
+                    .forEach(operation -> pollEvents(operation, now));
+        }
+        try {
+            if(due.size() <= listStacksPages.getOrDefault(amazonCloudFormation, 1)) {
+                due.forEach(operation -> describe(amazonCloudFormation, operation, now, true));
+            }
+            else {
+                list(amazonCloudFormation, operations, now);
+            }
+        }
+        catch (Exception ex) {
+            log.warn("Stack status sweep failed for {} operations, backing off", due.size(), ex);
+            due.forEach(operation -> backOff(operation, now));
+        }
+    }
+
+    private void describe(AmazonCloudFormation amazonCloudFormation, TrackedOperation operation, long now, boolean perStackPoll) {
+        if(perStackPoll) {
+            perStackCalls.incrementAndGet();
+        }
+        apiCalls.incrementAndGet();
+        try {
+            List<com.amazonaws.services.cloudformation.model.Stack> stacks = amazonCloudFormation
+                    .describeStacks(new DescribeStacksRequest().withStackName(operation.getStackName()))
+                    .getStacks();
+            if(stacks.isEmpty()) {
+                complete(operation, null);
+                return;
+            }
+            for(com.amazonaws.services.cloudformation.model.Stack stack : stacks) {
+                if(operation.getTerminalStatuses().contains(stack.getStackStatus())) {
+                    complete(operation, stack);
+                    return;
+                }
+                String previousStatus = operation.getLastStackStatus();
+                operation.setLastStackStatus(stack.getStackStatus());
+                if(eventStreamer != null && previousStatus != null && !previousStatus.equals(stack.getStackStatus())) {
+                    // The stack moved on since the last look, so its events are worth reading now
+                    pollEvents(operation, now);
+                }
+            }
+            log.debug("Waiting for cloudformation stack completion of {}...", operation);
+        }
+        catch (AmazonCloudFormationException ex) {
+            if(isMissingStack(ex)) {
+                complete(operation, null);
+                return;
+            }
+            log.warn("Describe stack failed for {}, will retry", operation, ex);
+        }
+        backOff(operation, now);
+    }
+
+    private void describeChangeSet(TrackedOperation operation, long now) {
+        apiCalls.incrementAndGet();
+        perStackCalls.incrementAndGet();
+        try {
+            DescribeChangeSetResult changeSet = operation.getAmazonCloudFormation()
+                    .describeChangeSet(new DescribeChangeSetRequest().withChangeSetName(operation.getChangeSetId()));
+            if(operation.getTerminalStatuses().contains(changeSet.getStatus())) {
+                operation.setChangeSetStatus(changeSet.getStatus());
+                operation.setChangeSetStatusReason(changeSet.getStatusReason());
+                operation.setChangeSetHasChanges(changeSet.getChanges() != null && !changeSet.getChanges().isEmpty());
+                complete(operation, null);
+                return;
+            }
+            log.debug("Waiting for change set of {}...", operation);
+        }
+        catch (AmazonCloudFormationException ex) {
+            if("ChangeSetNotFound".equals(ex.getErrorCode())) {
+                log.warn("Change set of {} no longer exists", operation);
+                complete(operation, null);
+                return;
+            }
+            log.warn("Describe change set failed for {}, will retry", operation, ex);
+        }
+        catch (Exception ex) {
+            log.warn("Describe change set failed for {}, will retry", operation, ex);
+        }
+        backOff(operation, now);
+    }
+
+    private void list(AmazonCloudFormation amazonCloudFormation, List<TrackedOperation> operations, long now) {
+        Set<String> stackNames = operations.stream().map(TrackedOperation::getStackName).collect(Collectors.toSet());
+        Set<String> statusFilters = operations.stream()
+                .map(TrackedOperation::getTerminalStatuses)
+                .flatMap(terminalStatuses -> terminalStatuses.names().stream())
+                .collect(Collectors.toSet());
+        Map<String, StackSummary> latest = new HashMap<>();
+        String nextToken = null;
+        int pages = 0;
+        do {
+            ListStacksResult listStacksResult = amazonCloudFormation.listStacks(new ListStacksRequest()
+                    .withStackStatusFilters(statusFilters)
+                    .withNextToken(nextToken));
+            pages++;
+            for(StackSummary summary : listStacksResult.getStackSummaries()) {
+                if(stackNames.contains(summary.getStackName())) {
+                    latest.merge(summary.getStackName(), summary,
+                            (first, second) -> StackIndex.lastActivity(first) >= StackIndex.lastActivity(second) ? first : second);
+                }
+            }
+            nextToken = listStacksResult.getNextToken();
+        } while(nextToken != null);
+        listStacksPages.put(amazonCloudFormation, pages);
+        apiCalls.addAndGet(pages);
+        perStackCalls.addAndGet(operations.size());
+
+        for(TrackedOperation operation : operations) {
+            StackSummary summary = latest.get(operation.getStackName());
+            if(summary != null && isTerminalFor(operation, summary)) {
+                if(operation.getOperation() == StackOperation.DELETE) {
+                    complete(operation, null);
+                }
+                else {
+                    describe(amazonCloudFormation, operation, now, false);
+                }
+            }
+            else if(summary == null && operation.getNextPollAt() <= now && operation.getPollInterval() >= maxPollIntervalMillis) {
+                // Still not listed after backing off all the way, so ask for the stack itself;
+                // a stack that no longer exists completes there instead of waiting forever
+                describe(amazonCloudFormation, operation, now, false);
+            }
+            else if(operation.getNextPollAt() <= now) {
+                backOff(operation, now);
+            }
+        }
+        log.info("Swept {} waiting stacks with {} ListStacks pages, {} API calls saved so far",
+                operations.size(), pages, getSavedCalls());
+    }
+
+    private boolean isTerminalFor(TrackedOperation operation, StackSummary summary) {
+        if(!operation.getTerminalStatuses().contains(summary.getStackStatus())) {
+            return false;
+        }
+        // A delete must not be satisfied by an older, already deleted stack with the same name
+        return operation.getOperation() != StackOperation.DELETE ||
+                StackIndex.lastActivity(summary) >= operation.getSubmittedAt() - CLOCK_SKEW_MILLIS;
+    }
+
+    /**
+     * Events are read at most once per maximum poll interval while a stack is waiting, plus
+     * when a describe shows its status changed and once on completion, so they do not undo
+     * the savings of the batched status sweep.
+     */
+    private void pollEvents(TrackedOperation operation, long now) {
+        operation.setNextEventPollAt(now + maxPollIntervalMillis);
+        int calls = eventStreamer.poll(operation);
+        apiCalls.addAndGet(calls);
+        perStackCalls.addAndGet(calls);
+    }
+
+    private void backOff(TrackedOperation operation, long now) {
+        operation.setPollInterval(Math.min(operation.getPollInterval() * 2, maxPollIntervalMillis));
+        operation.setNextPollAt(now + operation.getPollInterval());
+    }
+
+    private void complete(TrackedOperation operation, com.amazonaws.services.cloudformation.model.Stack stack) {
+        if(waiting.remove(operation)) {
+            if(eventStreamer != null && operation.getOperation() != StackOperation.CHANGE_SET) {
+                pollEvents(operation, System.currentTimeMillis());
+            }
+            onCompleted.accept(operation, stack);
+        }
+    }
+
+    static boolean isMissingStack(AmazonCloudFormationException ex) {
+        return ex.getErrorMessage() != null && ex.getErrorMessage().contains("does not exist");
+    }
+
+    public void close() {
+        scheduler.shutdownNow();
+        sweepers.shutdownNow();
+    }
+}
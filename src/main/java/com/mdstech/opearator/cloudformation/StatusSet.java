@@ -0,0 +1,51 @@
+package com.mdstech.opearator.cloudformation;
+
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Immutable set of CloudFormation statuses, such as those ending an operation, backed by an
+ * EnumSet of the SDK's status enum. Statuses arrive as strings on the wire and are matched
+ * by enum name, which for these enums is also the wire value.
+ */
+public final class StatusSet<E extends Enum<E>> {
+
+    private final Class<E> type;
+    private final EnumSet<E> statuses;
+    private final List<String> names;
+
+    private StatusSet(Class<E> type, EnumSet<E> statuses) {
+        this.type = type;
+        this.statuses = statuses;
+        this.names = Collections.unmodifiableList(statuses.stream().map(Enum::name).collect(Collectors.toList()));
+    }
+
+    @SafeVarargs
+    public static <E extends Enum<E>> StatusSet<E> of(E first, E... rest) {
+        return new StatusSet<>(first.getDeclaringClass(), EnumSet.of(first, rest));
+    }
+
+    public boolean contains(String status) {
+        if(status == null) {
+            return false;
+        }
+        try {
+            return statuses.contains(Enum.valueOf(type, status));
+        }
+        catch (IllegalArgumentException ex) {
+            // A status newer than the SDK, never one we wait for
+            return false;
+        }
+    }
+
+    public List<String> names() {
+        return names;
+    }
+
+    @Override
+    public String toString() {
+        return names.toString();
+    }
+}
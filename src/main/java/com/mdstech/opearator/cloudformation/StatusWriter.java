@@ -0,0 +1,265 @@
+package com.mdstech.opearator.cloudformation;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import io.fabric8.kubernetes.client.BaseClient;
+import io.fabric8.kubernetes.client.KubernetesClient;
+import io.fabric8.kubernetes.client.utils.Serialization;
+import io.fabric8.kubernetes.model.annotation.Group;
+import io.fabric8.kubernetes.model.annotation.Plural;
+import io.fabric8.kubernetes.model.annotation.Version;
+import okhttp3.HttpUrl;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Writes Stack status as JSON merge patches of the changed fields only, sent straight to the
+ * status subresource so no read precedes a write. Writes equal to the known server state are
+ * skipped, and writes to the same resource within the coalescing window are folded into one
+ * patch. Until the watch delivers the patched resource, the
+ * reconciler sees the written status through {@link #observe(Stack)}.
+ */
+public class StatusWriter {
+
+    private static final Logger log = LoggerFactory.getLogger(StatusWriter.class);
+    private static final MediaType MERGE_PATCH = MediaType.parse("application/merge-patch+json");
+    private static final int MAX_ATTEMPTS = 5;
+
+    private final OkHttpClient httpClient;
+    private final HttpUrl stacksUrl;
+    private final String plural;
+    private final long coalesceWindowMillis;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService flusher;
+    private final AtomicLong skipped = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicLong patches = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+
+    public StatusWriter(KubernetesClient client, long coalesceWindowMillis) {
+        this.httpClient = ((BaseClient) client).getHttpClient();
+        this.stacksUrl = HttpUrl.get(client.getMasterUrl().toString()).newBuilder()
+                .addPathSegment("apis")
+                .addPathSegment(Stack.class.getAnnotation(Group.class).value())
+                .addPathSegment(Stack.class.getAnnotation(Version.class).value())
+                .build();
+        this.plural = Stack.class.getAnnotation(Plural.class).value();
+        this.coalesceWindowMillis = coalesceWindowMillis;
+        this.flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "status-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Records the status the server returned with this resource version and, while the
+     * server has not caught up with the writes made here, replaces it with the written one.
+     */
+    public void observe(Stack stack) {
+        Entry entry = entries.computeIfAbsent(stack.getMetadata().getUid(), uid -> new Entry());
+        synchronized (entry) {
+            String resourceVersion = stack.getMetadata().getResourceVersion();
+            if(!Objects.equals(resourceVersion, entry.resourceVersion)) {
+                entry.resourceVersion = resourceVersion;
+                entry.confirmed = toJson(stack.getStatus());
+                entry.written = entry.pending != null;
+            }
+            if(entry.written) {
+                stack.setStatus(Serialization.jsonMapper().convertValue(
+                        entry.pending == null ? entry.confirmed : entry.pending, StackStatus.class));
+            }
+        }
+    }
+
+    public void write(Stack stack) {
+        Entry entry = entries.computeIfAbsent(stack.getMetadata().getUid(), uid -> new Entry());
+        ObjectNode desired = toJson(stack.getStatus());
+        synchronized (entry) {
+            if(entry.resourceVersion == null) {
+                // Not observed, so the server state is unknown and every field is written
+                entry.resourceVersion = stack.getMetadata().getResourceVersion();
+                entry.confirmed = JsonNodeFactory.instance.objectNode();
+            }
+            if(diff(entry.confirmed, desired).isEmpty()) {
+                if(entry.pending != null) {
+                    entry.pending = null;
+                    coalesced.incrementAndGet();
+                }
+                skipped.incrementAndGet();
+                return;
+            }
+            if(entry.pending != null) {
+                coalesced.incrementAndGet();
+            }
+            entry.pending = desired;
+            entry.namespace = stack.getMetadata().getNamespace();
+            entry.name = stack.getMetadata().getName();
+            entry.written = true;
+            if(!entry.scheduled) {
+                entry.scheduled = true;
+                entry.attempts = 0;
+                flusher.schedule(() -> flush(entry), coalesceWindowMillis, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    public void forget(String resourceUid) {
+        entries.remove(resourceUid);
+    }
+
+    private void flush(Entry entry) {
+        ObjectNode desired;
+        ObjectNode patch;
+        synchronized (entry) {
+            entry.scheduled = false;
+            if(entry.pending == null) {
+                return;
+            }
+            desired = entry.pending;
+            patch = diff(entry.confirmed, desired);
+            if(patch.isEmpty()) {
+                entry.pending = null;
+                return;
+            }
+        }
+        ObjectNode body = JsonNodeFactory.instance.objectNode();
+        body.set("status", patch);
+        HttpUrl url = stacksUrl.newBuilder()
+                .addPathSegment("namespaces").addPathSegment(entry.namespace)
+                .addPathSegment(plural).addPathSegment(entry.name)
+                .addPathSegment("status")
+                .build();
+        Request request = new Request.Builder().url(url).patch(RequestBody.create(MERGE_PATCH, body.toString())).build();
+        boolean retry = false;
+        try (Response response = httpClient.newCall(request).execute()) {
+            if(response.isSuccessful()) {
+                patches.incrementAndGet();
+                log.debug("Patched status of {}/{} with {}", entry.namespace, entry.name, patch);
+                synchronized (entry) {
+                    entry.confirmed = desired;
+                    if(entry.pending == desired) {
+                        entry.pending = null;
+                    }
+                }
+            }
+            else if(response.code() == 404) {
+                log.info("Stack {}/{} is gone, dropping its status write", entry.namespace, entry.name);
+                synchronized (entry) {
+                    entry.pending = null;
+                    entries.values().remove(entry);
+                }
+                return;
+            }
+            else {
+                failures.incrementAndGet();
+                log.warn("Status patch of {}/{} failed with {}", entry.namespace, entry.name, response.code());
+                retry = true;
+            }
+        }
+        catch (IOException ex) {
+            failures.incrementAndGet();
+            log.warn("Status patch of {}/{} failed", entry.namespace, entry.name, ex);
+            retry = true;
+        }
+        synchronized (entry) {
+            if(retry && ++entry.attempts >= MAX_ATTEMPTS) {
+                log.warn("Giving up status write of {}/{} after {} attempts", entry.namespace, entry.name, entry.attempts);
+                entry.pending = null;
+            }
+            if(entry.pending != null && !entry.scheduled) {
+                entry.scheduled = true;
+                flusher.schedule(() -> flush(entry), coalesceWindowMillis << Math.min(entry.attempts, 6), TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    private static ObjectNode toJson(StackStatus status) {
+        if(status == null) {
+            return JsonNodeFactory.instance.objectNode();
+        }
+        return Serialization.jsonMapper().valueToTree(status);
+    }
+
+    /**
+     * JSON merge patch (RFC 7386) turning the current document into the desired one.
+     */
+    static ObjectNode diff(JsonNode current, JsonNode desired) {
+        ObjectNode patch = JsonNodeFactory.instance.objectNode();
+        Iterator<Map.Entry<String, JsonNode>> fields = desired.fields();
+        while(fields.hasNext()) {
+            Map.Entry<String, JsonNode> field = fields.next();
+            JsonNode value = field.getValue();
+            JsonNode existing = current.get(field.getKey());
+            if(value.isNull()) {
+                if(existing != null && !existing.isNull()) {
+                    patch.putNull(field.getKey());
+                }
+            }
+            else if(value.isObject() && existing != null && existing.isObject()) {
+                ObjectNode nested = diff(existing, value);
+                if(!nested.isEmpty()) {
+                    patch.set(field.getKey(), nested);
+                }
+            }
+            else if(!value.equals(existing)) {
+                patch.set(field.getKey(), value);
+            }
+        }
+        Iterator<String> currentFields = current.fieldNames();
+        while(currentFields.hasNext()) {
+            String name = currentFields.next();
+            if(!desired.has(name) && !current.get(name).isNull()) {
+                patch.putNull(name);
+            }
+        }
+        return patch;
+    }
+
+    public long getSkipped() {
+        return skipped.get();
+    }
+
+    public long getCoalesced() {
+        return coalesced.get();
+    }
+
+    public long getPatches() {
+        return patches.get();
+    }
+
+    public long getFailures() {
+        return failures.get();
+    }
+
+    public void close() {
+        flusher.shutdownNow();
+    }
+
+    private static class Entry {
+        private String namespace;
+        private String name;
+        private String resourceVersion;
+        private ObjectNode confirmed;
+        private ObjectNode pending;
+        private boolean written;
+        private boolean scheduled;
+        private int attempts;
+    }
+}
@@ -0,0 +1,79 @@
+package com.mdstech.opearator.cloudformation;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * LRU cache of stack templates keyed by content hash, bounded by entry count and total
+ * size. Entries carry the memoized ValidateTemplate outcome for that content. Templates
+ * given by URL are keyed and fingerprinted by the URL alone, because CloudFormation reads
+ * the object directly and the operator never sees its content. A stack whose template
+ * object is replaced behind an unchanged URL is therefore not re-checked; changing the URL
+ * (for example by versioning the object key) or any other spec field submits it again.
+ */
+public class TemplateCache {
+
+    private static final Logger log = LoggerFactory.getLogger(TemplateCache.class);
+
+    private final int maxEntries;
+    private final long maxBytes;
+    private final Map<String, CachedTemplate> templates = new LinkedHashMap<>(16, 0.75f, true);
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private long totalBytes;
+
+    public TemplateCache(int maxEntries, long maxBytes) {
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+    }
+
+    public CachedTemplate resolve(StackSpec spec) {
+        if(spec.getTemplate() != null && !spec.getTemplate().isBlank()) {
+            String hash = SpecFingerprint.sha256(spec.getTemplate());
+            return resolve(hash, () -> new CachedTemplate(hash, spec.getTemplate(), null));
+        }
+        if(spec.getTemplateURL() != null && !spec.getTemplateURL().isBlank()) {
+            String url = spec.getTemplateURL();
+            return resolve("url:" + url, () -> new CachedTemplate(SpecFingerprint.sha256("url:" + url), null, url));
+        }
+        throw new IllegalArgumentException("Stack spec must define either template or templateURL");
+    }
+
+    private synchronized CachedTemplate resolve(String key, Supplier<CachedTemplate> loader) {
+        CachedTemplate cached = templates.get(key);
+        if(cached != null) {
+            hits.incrementAndGet();
+            return cached;
+        }
+        misses.incrementAndGet();
+        cached = loader.get();
+        templates.put(key, cached);
+        totalBytes += cached.size();
+        evict();
+        return cached;
+    }
+
+    private void evict() {
+        Iterator<CachedTemplate> eldest = templates.values().iterator();
+        while((templates.size() > maxEntries || totalBytes > maxBytes) && templates.size() > 1 && eldest.hasNext()) {
+            CachedTemplate evicted = eldest.next();
+            eldest.remove();
+            totalBytes -= evicted.size();
+            log.debug("Evicted template {} from cache", evicted.getHash());
+        }
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+}
@@ -5,33 +5,36 @@ import com.amazonaws.services.cloudformation.model.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.*;
-import java.util.stream.Collectors;
+import java.util.Set;
 
 public class TemplateProcessor {
 
+    private static final Set<String> EXISTING_STATUSES = Set.of(
+            com.amazonaws.services.cloudformation.model.StackStatus.CREATE_COMPLETE.toString(),
+            com.amazonaws.services.cloudformation.model.StackStatus.UPDATE_COMPLETE.toString());
     private final AmazonCloudFormation amazonCloudFormation;
-    private final Collection<String> defaultCapabilities;
-    private final List<Tag> defaultTags;
+    private final StackIndex stackIndex;
     private static final Logger log = LoggerFactory.getLogger(TemplateProcessor.class);
 
-    public TemplateProcessor(AmazonCloudFormation amazonCloudFormation, List<Tag> defaultTags, Collection<String> defaultCapabilities) {
+    public TemplateProcessor(AmazonCloudFormation amazonCloudFormation, StackIndex stackIndex) {
         this.amazonCloudFormation = amazonCloudFormation;
-        this.defaultCapabilities = defaultCapabilities;
-        this.defaultTags = defaultTags;
+        this.stackIndex = stackIndex;
     }
 
-    public CreateStackResult createStack(String name, String cutomRoleARN, String templateURL, Map<String, String> parameters, Map<String, String> tags) {
+    public CreateStackResult createStack(String name, StackRequestModel request) {
         CreateStackRequest createStackRequest =  new CreateStackRequest()
-                .withCapabilities(defaultCapabilities)
+                .withCapabilities(request.getCapabilities())
                 .withStackName(name)
-                .withRoleARN(cutomRoleARN)
-                .withTemplateURL(templateURL)
-                .withParameters(convertToParameters(parameters))
-                .withTags(convertToTags(tags));
+                .withRoleARN(request.getRoleARN())
+                .withTemplateURL(request.getTemplate().getUrl())
+                .withTemplateBody(request.getTemplate().getBody())
+                .withParameters(request.getStackParameters())
+                .withTags(request.getStackTags());
         log.info("Create Stack {}", createStackRequest);
         try {
-            return amazonCloudFormation.createStack(createStackRequest);
+            CreateStackResult createStackResult = amazonCloudFormation.createStack(createStackRequest);
+            stackIndex.record(name, "CREATE_IN_PROGRESS");
+            return createStackResult;
         }
         catch(AmazonCloudFormationException ex) {
             log.error("Got exception while creating", ex);
@@ -39,88 +42,120 @@ public class TemplateProcessor {
         }
     }
 
-    public UpdateStackResult updateStack(String name, String customRoleARN, String templateURL, Map<String, String> parameters, Map<String, String> tags) {
+    public UpdateStackResult updateStack(String name, StackRequestModel request) {
         UpdateStackRequest updateStackRequest = new UpdateStackRequest()
-                .withCapabilities(defaultCapabilities)
+                .withCapabilities(request.getCapabilities())
                 .withStackName(name)
-                .withRoleARN(customRoleARN)
-                .withTemplateURL(templateURL)
-                .withParameters(convertToParameters(parameters))
-                .withTags(convertToTags(tags));
+                .withRoleARN(request.getRoleARN())
+                .withTemplateURL(request.getTemplate().getUrl())
+                .withTemplateBody(request.getTemplate().getBody())
+                .withParameters(request.getStackParameters())
+                .withTags(request.getStackTags());
         log.info("Update Stack {}", updateStackRequest);
         try {
-            return amazonCloudFormation.updateStack(updateStackRequest);
+            UpdateStackResult updateStackResult = amazonCloudFormation.updateStack(updateStackRequest);
+            stackIndex.record(name, "UPDATE_IN_PROGRESS");
+            return updateStackResult;
         }
         catch(AmazonCloudFormationException ex) {
+            if(ex.getErrorMessage() != null && ex.getErrorMessage().contains("No updates are to be performed")) {
+                log.info("Stack {} has no updates to perform", name);
+                // No stack id: nothing was submitted
+                return new UpdateStackResult();
+            }
             log.error("Got exception while updating ", ex);
             return null;
         }
     }
 
-    public DeleteStackResult deleteStack(String name) {
-        DeleteStackRequest deleteStackRequest = new DeleteStackRequest().withStackName(name);
+    public CreateChangeSetResult createChangeSet(String name, String changeSetName, StackRequestModel request) {
+        CreateChangeSetRequest createChangeSetRequest = new CreateChangeSetRequest()
+                .withChangeSetType(ChangeSetType.UPDATE)
+                .withChangeSetName(changeSetName)
+                .withCapabilities(request.getCapabilities())
+                .withStackName(name)
+                .withRoleARN(request.getRoleARN())
+                .withTemplateURL(request.getTemplate().getUrl())
+                .withTemplateBody(request.getTemplate().getBody())
+                .withParameters(request.getStackParameters())
+                .withTags(request.getStackTags());
+        log.info("Create Change Set {}", createChangeSetRequest);
         try {
-            return amazonCloudFormation.deleteStack(deleteStackRequest);
+            return amazonCloudFormation.createChangeSet(createChangeSetRequest);
         }
-        catch (AmazonCloudFormationException ex) {
-            log.error("Got exception while deleting ", ex);
+        catch(AmazonCloudFormationException ex) {
+            log.error("Got exception while creating change set ", ex);
             return null;
         }
     }
 
-    public boolean isCreatedOrUpdatedStackExist(String stackName) {
-        List<String> stackStatuses = Arrays.asList("CREATE_COMPLETE", "UPDATE_COMPLETE");
-        log.info("Before verifying stack {} and status {} exists...", stackName, stackStatuses);
-        ListStacksResult listStacksResult = amazonCloudFormation.listStacks(
-                new ListStacksRequest().withStackStatusFilters(stackStatuses));
-        List<String> stackSummaries =
-                listStacksResult
-                        .getStackSummaries()
-                        .stream()
-                        .filter(stackSummary -> stackSummary.getStackName().equals(stackName) && stackStatuses.contains(stackSummary.getStackStatus()))
-                        .map(StackSummary::getStackName)
-                        .collect(Collectors.toList());
-        log.info("Stack {} exists : {}", stackName, stackSummaries.contains(stackName));
-        return stackSummaries.contains(stackName);
-    }
-
-    public boolean isStackDeletable(String stackName) {
-        ListStacksResult listStacksResult = amazonCloudFormation.listStacks();
-        List<String> stackStatuses =
-                listStacksResult
-                        .getStackSummaries()
-                        .stream()
-                        .filter(stackSummary -> stackSummary.getStackName().equals(stackName))
-                        .peek(stackSummary -> log.info("Stack {} and status {} ", stackSummary.getStackName(), stackSummary.getStackStatus()))
-                        .map(StackSummary::getStackStatus)
-                        .collect(Collectors.toList());
-        log.info("Stack {} Statuses {} ", stackName, stackStatuses);
-        return !( stackStatuses == null || stackStatuses.isEmpty() || stackStatuses.contains("DELETE_COMPLETE"));
+    public ExecuteChangeSetResult executeChangeSet(String name, String changeSetId) {
+        try {
+            ExecuteChangeSetResult executeChangeSetResult = amazonCloudFormation.executeChangeSet(
+                    new ExecuteChangeSetRequest().withChangeSetName(changeSetId));
+            stackIndex.record(name, "UPDATE_IN_PROGRESS");
+            return executeChangeSetResult;
+        }
+        catch(AmazonCloudFormationException ex) {
+            log.error("Got exception while executing change set ", ex);
+            return null;
+        }
     }
 
-    private Collection<Tag> convertToTags(Map<String, String> tags) {
-        List<Tag> tagList = new ArrayList<>();
-        if(!(defaultTags == null || defaultTags.isEmpty())) {
-            tagList.addAll(defaultTags);
+    public void deleteChangeSet(String changeSetId) {
+        try {
+            amazonCloudFormation.deleteChangeSet(new DeleteChangeSetRequest().withChangeSetName(changeSetId));
         }
-        if(tags != null) {
-            tagList.addAll(tags.entrySet().stream().map(entry -> new Tag().withKey(entry.getKey()).withValue(entry.getValue())).collect(Collectors.toList()));
+        catch(AmazonCloudFormationException ex) {
+            log.warn("Got exception while deleting change set {}", changeSetId, ex);
         }
-        return tagList;
     }
 
-    private Collection<Parameter> convertToParameters(Map<String, String> parameters) {
-        if(parameters == null || parameters.isEmpty()) {
-            return null;
+    public String validateTemplate(CachedTemplate template) {
+        if(!template.isValidated()) {
+            try {
+                amazonCloudFormation.validateTemplate(new ValidateTemplateRequest()
+                        .withTemplateURL(template.getUrl())
+                        .withTemplateBody(template.getBody()));
+                template.setValidationResult(null);
+            }
+            catch(AmazonCloudFormationException ex) {
+                if(!"ValidationError".equals(ex.getErrorCode())) {
+                    // Throttling, access or service errors say nothing about the template itself
+                    throw ex;
+                }
+                log.error("Template {} is not valid", template.getHash(), ex);
+                template.setValidationResult(ex.getErrorMessage());
+            }
         }
-        return parameters.entrySet().stream()
-                .map(entry -> new Parameter().withParameterKey(entry.getKey()).withParameterValue(entry.getValue())).collect(Collectors.toList());
+        return template.getValidationError();
     }
 
-    private Collection<String> convertToCapabilities(String capabilities) {
-        if(capabilities == null) {
+    public DeleteStackResult deleteStack(String name) {
+        DeleteStackRequest deleteStackRequest = new DeleteStackRequest().withStackName(name);
+        try {
+            DeleteStackResult deleteStackResult = amazonCloudFormation.deleteStack(deleteStackRequest);
+            stackIndex.record(name, "DELETE_IN_PROGRESS");
+            return deleteStackResult;
+        }
+        catch (AmazonCloudFormationException ex) {
+            log.error("Got exception while deleting ", ex);
             return null;
         }
-        return Arrays.stream(capabilities.split(",")).collect(Collectors.toList());
+    }
+
+    public boolean isCreatedOrUpdatedStackExist(String stackName) {
+        log.info("Before verifying stack {} and status {} exists...", stackName, EXISTING_STATUSES);
+        String stackStatus = stackIndex.getStatus(stackName);
+        // Set.of rejects null lookups
+        boolean exists = stackStatus != null && EXISTING_STATUSES.contains(stackStatus);
+        log.info("Stack {} exists : {}", stackName, exists);
+        return exists;
+    }
+
+    public boolean isStackDeletable(String stackName) {
+        String stackStatus = stackIndex.getStatus(stackName);
+        log.info("Stack {} Status {} ", stackName, stackStatus);
+        return !(stackStatus == null || "DELETE_COMPLETE".equals(stackStatus));
     }
 }
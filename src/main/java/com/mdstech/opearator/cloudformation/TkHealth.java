@@ -0,0 +1,30 @@
+package com.mdstech.opearator.cloudformation;
+
+import org.takes.Request;
+import org.takes.Response;
+import org.takes.Take;
+import org.takes.rs.RsText;
+import org.takes.rs.RsWithStatus;
+
+import java.net.HttpURLConnection;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Readiness endpoint, answering 503 until the operator caches are warm.
+ */
+public class TkHealth implements Take {
+
+    private final BooleanSupplier ready;
+
+    public TkHealth(BooleanSupplier ready) {
+        this.ready = ready;
+    }
+
+    @Override
+    public Response act(Request request) {
+        if(ready.getAsBoolean()) {
+            return new RsText("Listening on 8080");
+        }
+        return new RsWithStatus(new RsText("Warming up caches"), HttpURLConnection.HTTP_UNAVAILABLE);
+    }
+}
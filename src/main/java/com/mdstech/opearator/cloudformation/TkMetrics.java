@@ -0,0 +1,21 @@
+package com.mdstech.opearator.cloudformation;
+
+import org.takes.Request;
+import org.takes.Response;
+import org.takes.Take;
+import org.takes.rs.RsText;
+import org.takes.rs.RsWithType;
+
+public class TkMetrics implements Take {
+
+    private final OperatorMetrics metrics;
+
+    public TkMetrics(OperatorMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    @Override
+    public Response act(Request request) {
+        return new RsWithType(new RsText(metrics.scrape()), "text/plain; version=0.0.4; charset=utf-8");
+    }
+}
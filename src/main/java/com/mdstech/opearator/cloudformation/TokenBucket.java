@@ -0,0 +1,36 @@
+package com.mdstech.opearator.cloudformation;
+
+import java.util.concurrent.TimeUnit;
+
+public class TokenBucket {
+
+    private final double permitsPerNano;
+    private final double capacity;
+    private double tokens;
+    private long refilledAt;
+
+    public TokenBucket(double permitsPerSecond, int burst) {
+        this.permitsPerNano = permitsPerSecond / TimeUnit.SECONDS.toNanos(1);
+        this.capacity = Math.max(1, burst);
+        this.tokens = capacity;
+        this.refilledAt = System.nanoTime();
+    }
+
+    public void acquire() throws InterruptedException {
+        long waitNanos;
+        while((waitNanos = tryAcquire()) > 0) {
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+        }
+    }
+
+    private synchronized long tryAcquire() {
+        long now = System.nanoTime();
+        tokens = Math.min(capacity, tokens + (now - refilledAt) * permitsPerNano);
+        refilledAt = now;
+        if(tokens >= 1) {
+            tokens -= 1;
+            return 0;
+        }
+        return (long) Math.ceil((1 - tokens) / permitsPerNano);
+    }
+}
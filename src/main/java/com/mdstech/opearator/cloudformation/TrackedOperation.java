@@ -0,0 +1,210 @@
+package com.mdstech.opearator.cloudformation;
+
+import com.amazonaws.services.cloudformation.AmazonCloudFormation;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+public class TrackedOperation {
+
+    private final String resourceUid;
+    private final String stackName;
+    private final String namespace;
+    private final StackOperation operation;
+    private final StatusSet<?> terminalStatuses;
+    private final AmazonCloudFormation amazonCloudFormation;
+    private final Long generation;
+    private final long submittedAt;
+    private volatile com.amazonaws.services.cloudformation.model.Stack result;
+    private volatile Exception error;
+    private AwsTarget target;
+    private String specFingerprint;
+    private String changeSetId;
+    private String changeSetStatus;
+    private String changeSetStatusReason;
+    private boolean changeSetHasChanges;
+    private String lastEventId;
+    private final Deque<String> recentEvents = new ArrayDeque<>();
+    private long pollInterval;
+    private long nextPollAt;
+    private long nextEventPollAt;
+    private String lastStackStatus;
+
+    public TrackedOperation(Stack stack,
+                            StackOperation operation,
+                            StatusSet<?> terminalStatuses,
+                            AmazonCloudFormation amazonCloudFormation) {
+        this(stack, operation, terminalStatuses, amazonCloudFormation,
+                stack.getMetadata().getGeneration(), System.currentTimeMillis());
+    }
+
+    public TrackedOperation(Stack stack,
+                            StackOperation operation,
+                            StatusSet<?> terminalStatuses,
+                            AmazonCloudFormation amazonCloudFormation,
+                            Long generation,
+                            long submittedAt) {
+        this.resourceUid = stack.getMetadata().getUid();
+        this.stackName = stack.getMetadata().getName();
+        this.namespace = stack.getMetadata().getNamespace();
+        this.operation = operation;
+        this.terminalStatuses = terminalStatuses;
+        this.amazonCloudFormation = amazonCloudFormation;
+        this.generation = generation;
+        this.submittedAt = submittedAt;
+    }
+
+    public String getResourceUid() {
+        return resourceUid;
+    }
+
+    public String getStackName() {
+        return stackName;
+    }
+
+    public String getNamespace() {
+        return namespace;
+    }
+
+    public StackOperation getOperation() {
+        return operation;
+    }
+
+    public StatusSet<?> getTerminalStatuses() {
+        return terminalStatuses;
+    }
+
+    public AmazonCloudFormation getAmazonCloudFormation() {
+        return amazonCloudFormation;
+    }
+
+    public Long getGeneration() {
+        return generation;
+    }
+
+    public long getSubmittedAt() {
+        return submittedAt;
+    }
+
+    public com.amazonaws.services.cloudformation.model.Stack getResult() {
+        return result;
+    }
+
+    public void setResult(com.amazonaws.services.cloudformation.model.Stack result) {
+        this.result = result;
+    }
+
+    public Exception getError() {
+        return error;
+    }
+
+    public void setError(Exception error) {
+        this.error = error;
+    }
+
+    public AwsTarget getTarget() {
+        return target;
+    }
+
+    public void setTarget(AwsTarget target) {
+        this.target = target;
+    }
+
+    public String getSpecFingerprint() {
+        return specFingerprint;
+    }
+
+    public void setSpecFingerprint(String specFingerprint) {
+        this.specFingerprint = specFingerprint;
+    }
+
+    public String getChangeSetId() {
+        return changeSetId;
+    }
+
+    public void setChangeSetId(String changeSetId) {
+        this.changeSetId = changeSetId;
+    }
+
+    public String getChangeSetStatus() {
+        return changeSetStatus;
+    }
+
+    public void setChangeSetStatus(String changeSetStatus) {
+        this.changeSetStatus = changeSetStatus;
+    }
+
+    public String getChangeSetStatusReason() {
+        return changeSetStatusReason;
+    }
+
+    public void setChangeSetStatusReason(String changeSetStatusReason) {
+        this.changeSetStatusReason = changeSetStatusReason;
+    }
+
+    public boolean isChangeSetHasChanges() {
+        return changeSetHasChanges;
+    }
+
+    public void setChangeSetHasChanges(boolean changeSetHasChanges) {
+        this.changeSetHasChanges = changeSetHasChanges;
+    }
+
+    public String getLastEventId() {
+        return lastEventId;
+    }
+
+    public void setLastEventId(String lastEventId) {
+        this.lastEventId = lastEventId;
+    }
+
+    public synchronized List<String> getRecentEvents() {
+        return new ArrayList<>(recentEvents);
+    }
+
+    public synchronized void addRecentEvent(String event, int limit) {
+        recentEvents.addLast(event);
+        while(recentEvents.size() > limit) {
+            recentEvents.removeFirst();
+        }
+    }
+
+    public long getPollInterval() {
+        return pollInterval;
+    }
+
+    public void setPollInterval(long pollInterval) {
+        this.pollInterval = pollInterval;
+    }
+
+    public long getNextPollAt() {
+        return nextPollAt;
+    }
+
+    public void setNextPollAt(long nextPollAt) {
+        this.nextPollAt = nextPollAt;
+    }
+
+    public long getNextEventPollAt() {
+        return nextEventPollAt;
+    }
+
+    public void setNextEventPollAt(long nextEventPollAt) {
+        this.nextEventPollAt = nextEventPollAt;
+    }
+
+    public String getLastStackStatus() {
+        return lastStackStatus;
+    }
+
+    public void setLastStackStatus(String lastStackStatus) {
+        this.lastStackStatus = lastStackStatus;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s %s (%s)", operation, stackName, resourceUid);
+    }
+}
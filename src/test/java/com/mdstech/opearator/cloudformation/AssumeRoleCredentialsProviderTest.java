@@ -0,0 +1,97 @@
+package com.mdstech.opearator.cloudformation;
+
+import com.amazonaws.SdkClientException;
+import com.amazonaws.services.securitytoken.AbstractAWSSecurityTokenService;
+import com.amazonaws.services.securitytoken.model.AssumeRoleRequest;
+import com.amazonaws.services.securitytoken.model.AssumeRoleResult;
+import com.amazonaws.services.securitytoken.model.Credentials;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Date;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class AssumeRoleCredentialsProviderTest {
+
+    private final ScheduledThreadPoolExecutor refresher = new ScheduledThreadPoolExecutor(1);
+    private final FakeSts sts = new FakeSts();
+    private final AtomicLong refreshes = new AtomicLong();
+    private final AtomicLong refreshFailures = new AtomicLong();
+
+    @AfterEach
+    void tearDown() {
+        refresher.shutdownNow();
+    }
+
+    @Test
+    void keepsOneScheduledRefreshWhateverTheOutcome() {
+        refresher.setRemoveOnCancelPolicy(true);
+        sts.expiresIn = TimeUnit.HOURS.toMillis(1);
+        AssumeRoleCredentialsProvider provider = newProvider();
+
+        provider.refresh();
+        sts.failing = true;
+        provider.refresh();
+        provider.refresh();
+
+        assertEquals(1, refresher.getQueue().size());
+        assertEquals(2, refreshes.get());
+        assertEquals(2, refreshFailures.get());
+    }
+
+    @Test
+    void failsInsteadOfReturningExpiredCredentials() {
+        refresher.setRemoveOnCancelPolicy(true);
+        sts.expiresIn = -1;
+        AssumeRoleCredentialsProvider provider = newProvider();
+        sts.failing = true;
+
+        assertThrows(SdkClientException.class, provider::getCredentials);
+        // A second caller within the inline retry delay fails without calling STS
+        assertThrows(SdkClientException.class, provider::getCredentials);
+
+        assertEquals(2, sts.calls);
+        assertEquals(1, refresher.getQueue().size());
+    }
+
+    @Test
+    void renewsExpiredCredentialsInline() {
+        sts.expiresIn = -1;
+        AssumeRoleCredentialsProvider provider = newProvider();
+        sts.expiresIn = TimeUnit.HOURS.toMillis(1);
+
+        assertEquals("key-2", provider.getCredentials().getAWSAccessKeyId());
+        assertEquals("key-2", provider.getCredentials().getAWSAccessKeyId());
+        assertEquals(2, sts.calls);
+    }
+
+    private AssumeRoleCredentialsProvider newProvider() {
+        return new AssumeRoleCredentialsProvider(sts, "arn:aws:iam::000000000000:role/test", "test",
+                refresher, refreshes, refreshFailures, new OperatorMetrics());
+    }
+
+    private static class FakeSts extends AbstractAWSSecurityTokenService {
+
+        private volatile boolean failing;
+        private volatile long expiresIn;
+        private volatile int calls;
+
+        @Override
+        public AssumeRoleResult assumeRole(AssumeRoleRequest request) {
+            calls++;
+            if(failing) {
+                throw new SdkClientException("STS is unavailable");
+            }
+            return new AssumeRoleResult().withCredentials(new Credentials()
+                    .withAccessKeyId("key-" + calls)
+                    .withSecretAccessKey("secret")
+                    .withSessionToken("token")
+                    .withExpiration(new Date(System.currentTimeMillis() + expiresIn)));
+        }
+    }
+}
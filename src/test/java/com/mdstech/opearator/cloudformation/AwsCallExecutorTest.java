@@ -0,0 +1,138 @@
+package com.mdstech.opearator.cloudformation;
+
+import com.amazonaws.AmazonServiceException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AwsCallExecutorTest {
+
+    private static final AwsTarget TARGET = new AwsTarget("us-east-1", null);
+
+    private final AwsCallExecutor executor = new AwsCallExecutor(4, 2, false, 1000, 1000, 2, new OperatorMetrics());
+
+    @AfterEach
+    void tearDown() {
+        executor.close();
+    }
+
+    @Test
+    void throttlingIsRecognizedByErrorCodeAndStatus() {
+        assertTrue(AwsCallExecutor.isThrottling(serviceError("Throttling", 400)));
+        assertTrue(AwsCallExecutor.isThrottling(serviceError("RequestLimitExceeded", 400)));
+        assertTrue(AwsCallExecutor.isThrottling(serviceError("SlowDown", 429)));
+        assertFalse(AwsCallExecutor.isThrottling(serviceError("ValidationError", 400)));
+        assertFalse(AwsCallExecutor.isThrottling(serviceError("InternalFailure", 500)));
+        assertFalse(AwsCallExecutor.isThrottling(new IllegalStateException("Throttling")));
+    }
+
+    @Test
+    void throttledCallsAreRetried() throws Exception {
+        AtomicInteger attempts = new AtomicInteger();
+
+        String result = executor.call(TARGET, "describeStacks", () -> {
+            if(attempts.incrementAndGet() < 3) {
+                throw serviceError("Throttling", 400);
+            }
+            return "done";
+        });
+
+        assertEquals("done", result);
+        assertEquals(3, attempts.get());
+    }
+
+    @Test
+    void serverErrorsAreRetriedUntilTheLimit() {
+        AtomicInteger attempts = new AtomicInteger();
+        AmazonServiceException failure = serviceError("InternalFailure", 503);
+
+        Exception thrown = assertThrows(AmazonServiceException.class, () -> executor.call(TARGET, "describeStacks", () -> {
+            attempts.incrementAndGet();
+            throw failure;
+        }));
+
+        assertSame(failure, thrown);
+        assertEquals(3, attempts.get());
+    }
+
+    @Test
+    void clientErrorsFailWithoutRetry() {
+        AtomicInteger attempts = new AtomicInteger();
+        AmazonServiceException failure = serviceError("ValidationError", 400);
+
+        Exception thrown = assertThrows(AmazonServiceException.class, () -> executor.call(TARGET, "createStack", () -> {
+            attempts.incrementAndGet();
+            throw failure;
+        }));
+
+        assertSame(failure, thrown);
+        assertEquals(1, attempts.get());
+    }
+
+    @Test
+    void otherExceptionsFailWithoutRetry() {
+        AtomicInteger attempts = new AtomicInteger();
+
+        assertThrows(IllegalStateException.class, () -> executor.call(TARGET, "createStack", () -> {
+            attempts.incrementAndGet();
+            throw new IllegalStateException("broken");
+        }));
+
+        assertEquals(1, attempts.get());
+    }
+
+    @Test
+    void bulkheadCapsTheCallsOfOneTarget() throws Exception {
+        ExecutorService callers = Executors.newFixedThreadPool(3);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger running = new AtomicInteger();
+        try {
+            Future<?>[] calls = new Future<?>[3];
+            for(int i = 0; i < calls.length; i++) {
+                calls[i] = callers.submit(() -> executor.call(TARGET, "describeStacks", () -> {
+                    running.incrementAndGet();
+                    return release.await(5, TimeUnit.SECONDS);
+                }));
+            }
+            long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(5);
+            while(running.get() < 2 && System.currentTimeMillis() < deadline) {
+                TimeUnit.MILLISECONDS.sleep(10);
+            }
+            TimeUnit.MILLISECONDS.sleep(100);
+
+            assertEquals(2, running.get());
+            assertEquals(2, executor.getInFlight(TARGET));
+            assertEquals(0, executor.getInFlight(new AwsTarget("eu-west-1", null)));
+
+            release.countDown();
+            for(Future<?> call : calls) {
+                call.get(5, TimeUnit.SECONDS);
+            }
+            assertEquals(3, running.get());
+            assertEquals(0, executor.getInFlight(TARGET));
+        }
+        finally {
+            release.countDown();
+            callers.shutdownNow();
+        }
+    }
+
+    private static AmazonServiceException serviceError(String code, int statusCode) {
+        AmazonServiceException ex = new AmazonServiceException(code);
+        ex.setErrorCode(code);
+        ex.setStatusCode(statusCode);
+        return ex;
+    }
+}
@@ -0,0 +1,144 @@
+package com.mdstech.opearator.cloudformation;
+
+import com.amazonaws.services.cloudformation.AbstractAmazonCloudFormation;
+import com.amazonaws.services.cloudformation.model.DescribeStackDriftDetectionStatusRequest;
+import com.amazonaws.services.cloudformation.model.DescribeStackDriftDetectionStatusResult;
+import com.amazonaws.services.cloudformation.model.DetectStackDriftRequest;
+import com.amazonaws.services.cloudformation.model.DetectStackDriftResult;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DriftDetectorTest {
+
+    private final FakeDriftApi cloudFormation = new FakeDriftApi();
+    private final Semaphore results = new Semaphore(0);
+    private final DriftDetector detector = new DriftDetector(TimeUnit.HOURS.toMillis(1), TimeUnit.HOURS.toMillis(1), 1, false,
+            uid -> true, uid -> results.release());
+
+    @AfterEach
+    void tearDown() {
+        cloudFormation.detectGate.countDown();
+        cloudFormation.pollGate.countDown();
+        detector.close();
+    }
+
+    @Test
+    void finishedDetectionReturnsItsPermit() throws Exception {
+        cloudFormation.detectGate.countDown();
+        cloudFormation.pollGate.countDown();
+        detector.watch("uid-1", "stack-1", cloudFormation);
+
+        detector.sweep();
+        await(() -> cloudFormation.detectCalls == 1 && detector.getAvailablePermits() == 0);
+        waitUntilIdle();
+        detector.sweep();
+        assertTrue(results.tryAcquire(5, TimeUnit.SECONDS));
+
+        assertEquals(1, detector.getAvailablePermits());
+        assertEquals("DRIFTED", detector.getResult("uid-1").get().getStatus());
+    }
+
+    @Test
+    void forgettingWhileDetectionStartsDoesNotLeakThePermit() throws Exception {
+        detector.watch("uid-1", "stack-1", cloudFormation);
+
+        detector.sweep();
+        await(() -> cloudFormation.detectCalls == 1);
+        detector.forget("uid-1");
+        cloudFormation.detectGate.countDown();
+        waitUntilIdle();
+
+        assertEquals(1, detector.getAvailablePermits());
+    }
+
+    @Test
+    void forgettingWhileDetectionFinishesReleasesThePermitOnce() throws Exception {
+        cloudFormation.detectGate.countDown();
+        detector.watch("uid-1", "stack-1", cloudFormation);
+        detector.sweep();
+        await(() -> cloudFormation.detectCalls == 1);
+        waitUntilIdle();
+
+        detector.sweep();
+        await(() -> cloudFormation.pollCalls == 1);
+        detector.forget("uid-1");
+        cloudFormation.pollGate.countDown();
+        assertTrue(results.tryAcquire(5, TimeUnit.SECONDS));
+
+        assertEquals(1, detector.getAvailablePermits());
+    }
+
+    @Test
+    void invalidateDropsTheStaleVerdict() throws Exception {
+        cloudFormation.detectGate.countDown();
+        cloudFormation.pollGate.countDown();
+        detector.watch("uid-1", "stack-1", cloudFormation);
+        detector.sweep();
+        await(() -> cloudFormation.detectCalls == 1);
+        waitUntilIdle();
+        detector.sweep();
+        assertTrue(results.tryAcquire(5, TimeUnit.SECONDS));
+
+        detector.invalidate("uid-1");
+
+        assertFalse(detector.getResult("uid-1").isPresent());
+    }
+
+    private void waitUntilIdle() throws InterruptedException {
+        // The worker clears its busy flag right after the fake returns
+        TimeUnit.MILLISECONDS.sleep(100);
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(5);
+        while(!condition.getAsBoolean()) {
+            assertTrue(System.currentTimeMillis() < deadline, "Timed out waiting for the detector");
+            TimeUnit.MILLISECONDS.sleep(10);
+        }
+    }
+
+    private static class FakeDriftApi extends AbstractAmazonCloudFormation {
+
+        private final CountDownLatch detectGate = new CountDownLatch(1);
+        private final CountDownLatch pollGate = new CountDownLatch(1);
+        private volatile int detectCalls;
+        private volatile int pollCalls;
+
+        @Override
+        public DetectStackDriftResult detectStackDrift(DetectStackDriftRequest request) {
+            detectCalls++;
+            awaitGate(detectGate);
+            return new DetectStackDriftResult().withStackDriftDetectionId("detection-" + request.getStackName());
+        }
+
+        @Override
+        public DescribeStackDriftDetectionStatusResult describeStackDriftDetectionStatus(
+                DescribeStackDriftDetectionStatusRequest request) {
+            pollCalls++;
+            awaitGate(pollGate);
+            return new DescribeStackDriftDetectionStatusResult()
+                    .withStackDriftDetectionId(request.getStackDriftDetectionId())
+                    .withDetectionStatus("DETECTION_COMPLETE")
+                    .withStackDriftStatus("DRIFTED")
+                    .withDriftedStackResourceCount(2);
+        }
+
+        private static void awaitGate(CountDownLatch gate) {
+            try {
+                gate.await(5, TimeUnit.SECONDS);
+            }
+            catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
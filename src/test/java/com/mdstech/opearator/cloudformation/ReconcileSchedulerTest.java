@@ -0,0 +1,160 @@
+package com.mdstech.opearator.cloudformation;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ReconcileSchedulerTest {
+
+    private static final long HOUR = TimeUnit.HOURS.toMillis(1);
+
+    private final List<String> retriggered = new CopyOnWriteArrayList<>();
+    private final List<ReconcileScheduler> schedulers = new ArrayList<>();
+
+    @AfterEach
+    void tearDown() {
+        schedulers.forEach(ReconcileScheduler::close);
+    }
+
+    @Test
+    void admitsUpToTheSlotCountAndQueuesTheRest() {
+        ReconcileScheduler scheduler = scheduler(2, HOUR, HOUR);
+
+        assertTrue(scheduler.admit("a", "ns", ReconcileScheduler.Lane.CREATE));
+        assertTrue(scheduler.admit("b", "ns", ReconcileScheduler.Lane.CREATE));
+        assertFalse(scheduler.admit("c", "ns", ReconcileScheduler.Lane.CREATE));
+        assertFalse(scheduler.admit("c", "ns", ReconcileScheduler.Lane.CREATE));
+
+        assertEquals(2, scheduler.getRunning());
+        assertEquals(1, scheduler.getQueued(ReconcileScheduler.Lane.CREATE));
+    }
+
+    @Test
+    void lanesAreServedDeletesFirstAndResyncsLast() {
+        ReconcileScheduler scheduler = scheduler(1, HOUR, HOUR);
+        assertTrue(scheduler.admit("holder", "ns", ReconcileScheduler.Lane.CREATE));
+        scheduler.admit("resync", "ns", ReconcileScheduler.Lane.RESYNC);
+        scheduler.admit("update", "ns", ReconcileScheduler.Lane.UPDATE);
+        scheduler.admit("create", "ns", ReconcileScheduler.Lane.CREATE);
+        scheduler.admit("delete", "ns", ReconcileScheduler.Lane.DELETE);
+
+        runQueue(scheduler, "holder", 4);
+
+        assertEquals(Arrays.asList("delete", "create", "update", "resync"), retriggered);
+    }
+
+    @Test
+    void requeueingInAnotherLaneMovesTheTicket() {
+        ReconcileScheduler scheduler = scheduler(1, HOUR, HOUR);
+        assertTrue(scheduler.admit("holder", "ns", ReconcileScheduler.Lane.CREATE));
+        scheduler.admit("stack", "ns", ReconcileScheduler.Lane.RESYNC);
+        scheduler.admit("create", "ns", ReconcileScheduler.Lane.CREATE);
+
+        scheduler.admit("stack", "ns", ReconcileScheduler.Lane.DELETE);
+
+        assertEquals(0, scheduler.getQueued(ReconcileScheduler.Lane.RESYNC));
+        runQueue(scheduler, "holder", 2);
+        assertEquals(Arrays.asList("stack", "create"), retriggered);
+    }
+
+    @Test
+    void namespacesTakeTurnsAndShortStacksGoFirst() {
+        ReconcileScheduler scheduler = scheduler(1, HOUR, HOUR);
+        scheduler.recordDuration("a-slow", 30_000);
+        scheduler.recordDuration("a-fast", 1_000);
+        scheduler.recordDuration("a-medium", 10_000);
+        assertTrue(scheduler.admit("holder", "ns-a", ReconcileScheduler.Lane.CREATE));
+        scheduler.admit("a-slow", "ns-a", ReconcileScheduler.Lane.CREATE);
+        scheduler.admit("a-fast", "ns-a", ReconcileScheduler.Lane.CREATE);
+        scheduler.admit("a-medium", "ns-a", ReconcileScheduler.Lane.CREATE);
+        scheduler.admit("b", "ns-b", ReconcileScheduler.Lane.CREATE);
+
+        runQueue(scheduler, "holder", 4);
+
+        assertEquals(Arrays.asList("a-fast", "b", "a-medium", "a-slow"), retriggered);
+    }
+
+    @Test
+    void ticketWaitingPastTheMaximumIsServedAheadOfTheLanes() throws Exception {
+        ReconcileScheduler scheduler = scheduler(1, 50, HOUR);
+        assertTrue(scheduler.admit("holder", "ns", ReconcileScheduler.Lane.CREATE));
+        scheduler.admit("resync", "ns", ReconcileScheduler.Lane.RESYNC);
+        TimeUnit.MILLISECONDS.sleep(100);
+        scheduler.admit("delete", "ns", ReconcileScheduler.Lane.DELETE);
+
+        runQueue(scheduler, "holder", 2);
+
+        assertEquals(Arrays.asList("resync", "delete"), retriggered);
+    }
+
+    @Test
+    void unusedGrantIsReapedAndItsSlotPassedOn() throws Exception {
+        ReconcileScheduler scheduler = scheduler(1, HOUR, 100);
+        assertTrue(scheduler.admit("holder", "ns", ReconcileScheduler.Lane.CREATE));
+        scheduler.admit("absent", "ns", ReconcileScheduler.Lane.CREATE);
+        scheduler.admit("next", "ns", ReconcileScheduler.Lane.CREATE);
+
+        scheduler.release("holder");
+        assertEquals(Arrays.asList("absent"), retriggered);
+
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(5);
+        while(retriggered.size() < 2 && System.currentTimeMillis() < deadline) {
+            TimeUnit.MILLISECONDS.sleep(20);
+        }
+        assertEquals(Arrays.asList("absent", "next"), retriggered);
+        assertTrue(scheduler.admit("next", "ns", ReconcileScheduler.Lane.CREATE));
+    }
+
+    @Test
+    void startedSubmissionKeepsItsSlot() throws Exception {
+        ReconcileScheduler scheduler = scheduler(1, HOUR, 100);
+        assertTrue(scheduler.admit("holder", "ns", ReconcileScheduler.Lane.CREATE));
+        scheduler.admit("waiting", "ns", ReconcileScheduler.Lane.CREATE);
+
+        TimeUnit.MILLISECONDS.sleep(400);
+
+        assertTrue(retriggered.isEmpty());
+        assertEquals(1, scheduler.getRunning());
+        assertEquals(1, scheduler.getQueued(ReconcileScheduler.Lane.CREATE));
+    }
+
+    @Test
+    void forgettingAHolderFreesItsSlot() {
+        ReconcileScheduler scheduler = scheduler(1, HOUR, HOUR);
+        assertTrue(scheduler.admit("holder", "ns", ReconcileScheduler.Lane.CREATE));
+        scheduler.admit("waiting", "ns", ReconcileScheduler.Lane.CREATE);
+
+        scheduler.forget("holder");
+
+        assertEquals(Arrays.asList("waiting"), retriggered);
+    }
+
+    /**
+     * Releases the first holder, then reconciles and releases every admitted resource in
+     * turn, as the retriggered reconciles would.
+     */
+    private void runQueue(ReconcileScheduler scheduler, String holder, int expected) {
+        scheduler.release(holder);
+        for(int i = 0; i < expected && i < retriggered.size(); i++) {
+            String admitted = retriggered.get(i);
+            assertTrue(scheduler.admit(admitted, "ns", ReconcileScheduler.Lane.CREATE), admitted + " was admitted");
+            scheduler.release(admitted);
+        }
+        assertEquals(expected, retriggered.size());
+    }
+
+    private ReconcileScheduler scheduler(int slots, long maxWaitMillis, long grantTimeoutMillis) {
+        ReconcileScheduler scheduler = new ReconcileScheduler(slots, maxWaitMillis, grantTimeoutMillis, retriggered::add);
+        schedulers.add(scheduler);
+        return scheduler;
+    }
+}
@@ -0,0 +1,151 @@
+package com.mdstech.opearator.cloudformation;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ShardCoordinatorTest {
+
+    private static final int LEASE_SECONDS = 15;
+    private static final long LEASE_MILLIS = TimeUnit.SECONDS.toMillis(LEASE_SECONDS);
+    private static final long T0 = 1_000_000L;
+
+    private final List<ShardCoordinator> coordinators = new ArrayList<>();
+
+    @AfterEach
+    void tearDown() {
+        // No client, so leaving the ring only stops the scheduler
+        coordinators.forEach(ShardCoordinator::stop);
+    }
+
+    @Test
+    void ownsNothingBeforeTheFirstHeartbeat() {
+        ShardCoordinator coordinator = coordinator("a", LEASE_SECONDS);
+
+        assertFalse(coordinator.owns("ns", "stack", T0));
+    }
+
+    @Test
+    void claimsItsRangesOnlyAfterOneLeaseDuration() {
+        ShardCoordinator coordinator = coordinator("a", LEASE_SECONDS);
+        coordinator.synced(T0);
+
+        assertFalse(coordinator.owns("ns", "stack", T0 + LEASE_MILLIS - 1));
+        assertTrue(coordinator.owns("ns", "stack", T0 + LEASE_MILLIS));
+    }
+
+    @Test
+    void staleViewOwnsNothing() {
+        ShardCoordinator coordinator = coordinator("a", LEASE_SECONDS);
+        coordinator.synced(T0);
+        coordinator.synced(T0 + LEASE_MILLIS);
+
+        assertTrue(coordinator.owns("ns", "stack", T0 + 2 * LEASE_MILLIS));
+        assertFalse(coordinator.owns("ns", "stack", T0 + 2 * LEASE_MILLIS + 1));
+    }
+
+    @Test
+    void syncingAgainAfterAStaleViewStartsANewGracePeriod() {
+        ShardCoordinator coordinator = coordinator("a", LEASE_SECONDS);
+        coordinator.synced(T0);
+        long backAt = T0 + 3 * LEASE_MILLIS;
+        coordinator.synced(backAt);
+
+        assertFalse(coordinator.owns("ns", "stack", backAt + 1));
+        assertTrue(coordinator.owns("ns", "stack", backAt + LEASE_MILLIS));
+    }
+
+    @Test
+    void rescansOwnedStacksAfterJoiningAndAfterRecovering() throws Exception {
+        ShardCoordinator coordinator = coordinator("a", 1);
+        AtomicInteger rebalances = new AtomicInteger();
+        coordinator.onRebalance(rebalances::incrementAndGet);
+        long now = System.currentTimeMillis();
+
+        coordinator.synced(now);
+        coordinator.synced(now + 100);
+        coordinator.synced(now + 5_000);
+
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(5);
+        while(rebalances.get() < 2 && System.currentTimeMillis() < deadline) {
+            TimeUnit.MILLISECONDS.sleep(20);
+        }
+        TimeUnit.MILLISECONDS.sleep(200);
+        assertEquals(2, rebalances.get());
+    }
+
+    @Test
+    void everyStackHasExactlyOneOwner() {
+        List<String> members = Arrays.asList("a", "b", "c");
+        List<ShardCoordinator> ring = new ArrayList<>();
+        for(String member : members) {
+            ShardCoordinator coordinator = coordinator(member, LEASE_SECONDS);
+            coordinator.updateMembers(members);
+            coordinator.synced(T0);
+            ring.add(coordinator);
+        }
+        int[] owned = new int[members.size()];
+        for(int i = 0; i < 3000; i++) {
+            int owners = 0;
+            for(int m = 0; m < ring.size(); m++) {
+                if(ring.get(m).owns("ns-" + (i % 7), "stack-" + i, T0 + LEASE_MILLIS)) {
+                    owners++;
+                    owned[m]++;
+                }
+            }
+            assertEquals(1, owners, "owners of stack-" + i);
+        }
+        for(int count : owned) {
+            // 64 virtual nodes per member keep the split roughly even
+            assertTrue(count > 500, "uneven split " + Arrays.toString(owned));
+        }
+    }
+
+    @Test
+    void joiningMemberOnlyTakesStacksFromOthers() {
+        ShardCoordinator coordinator = coordinator("a", LEASE_SECONDS);
+        coordinator.updateMembers(Arrays.asList("a", "b"));
+        coordinator.synced(T0);
+        long now = T0 + LEASE_MILLIS;
+        boolean[] ownedBefore = new boolean[2000];
+        for(int i = 0; i < ownedBefore.length; i++) {
+            ownedBefore[i] = coordinator.owns("ns", "stack-" + i, now);
+        }
+
+        coordinator.updateMembers(Arrays.asList("a", "b", "c"));
+
+        for(int i = 0; i < ownedBefore.length; i++) {
+            if(coordinator.owns("ns", "stack-" + i, now)) {
+                assertTrue(ownedBefore[i], "stack-" + i + " moved to a from b");
+            }
+        }
+    }
+
+    @Test
+    void membershipChangeTriggersRebalance() {
+        ShardCoordinator coordinator = coordinator("a", LEASE_SECONDS);
+        AtomicInteger rebalances = new AtomicInteger();
+        coordinator.onRebalance(rebalances::incrementAndGet);
+
+        coordinator.updateMembers(Arrays.asList("a", "b"));
+        coordinator.updateMembers(Arrays.asList("a", "b"));
+
+        assertEquals(1, rebalances.get());
+        assertTrue(coordinator.isLeader());
+    }
+
+    private ShardCoordinator coordinator(String identity, int leaseDurationSeconds) {
+        ShardCoordinator coordinator = new ShardCoordinator(null, "cf-stack-operator", identity, leaseDurationSeconds);
+        coordinators.add(coordinator);
+        return coordinator;
+    }
+}
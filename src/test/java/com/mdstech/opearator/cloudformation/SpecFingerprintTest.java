@@ -0,0 +1,107 @@
+package com.mdstech.opearator.cloudformation;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+class SpecFingerprintTest {
+
+    private static final String TEMPLATE_HASH = SpecFingerprint.sha256("Resources: {}");
+
+    @Test
+    void sameSpecGivesTheSameFingerprint() {
+        assertEquals(fingerprint(spec(), parameters("Env", "dev")), fingerprint(spec(), parameters("Env", "dev")));
+    }
+
+    @Test
+    void mapOrderDoesNotMatter() {
+        Map<String, String> ordered = new LinkedHashMap<>();
+        ordered.put("Env", "dev");
+        ordered.put("Size", "small");
+        Map<String, String> reversed = new LinkedHashMap<>();
+        reversed.put("Size", "small");
+        reversed.put("Env", "dev");
+        StackSpec first = spec();
+        first.setTags(ordered);
+        StackSpec second = spec();
+        second.setTags(reversed);
+
+        assertEquals(fingerprint(first, ordered), fingerprint(second, reversed));
+    }
+
+    @Test
+    void capabilityOrderDoesNotMatter() {
+        assertEquals(
+                SpecFingerprint.compute(spec(), parameters("Env", "dev"), TEMPLATE_HASH, Arrays.asList("CAPABILITY_IAM", "CAPABILITY_NAMED_IAM")),
+                SpecFingerprint.compute(spec(), parameters("Env", "dev"), TEMPLATE_HASH, Arrays.asList("CAPABILITY_NAMED_IAM", "CAPABILITY_IAM")));
+    }
+
+    @Test
+    void everyInputChangesTheFingerprint() {
+        String base = fingerprint(spec(), parameters("Env", "dev"));
+
+        assertNotEquals(base, fingerprint(spec(), parameters("Env", "prod")));
+        assertNotEquals(base, SpecFingerprint.compute(spec(), parameters("Env", "dev"), SpecFingerprint.sha256("other"), null));
+        assertNotEquals(base, SpecFingerprint.compute(spec(), parameters("Env", "dev"), TEMPLATE_HASH, Arrays.asList("CAPABILITY_IAM")));
+        StackSpec tagged = spec();
+        tagged.setTags(parameters("team", "platform"));
+        assertNotEquals(base, fingerprint(tagged, parameters("Env", "dev")));
+        StackSpec role = spec();
+        role.setCustomRoleARN("arn:aws:iam::123456789012:role/deployer");
+        assertNotEquals(base, fingerprint(role, parameters("Env", "dev")));
+        StackSpec region = spec();
+        region.setRegion("eu-west-1");
+        assertNotEquals(base, fingerprint(region, parameters("Env", "dev")));
+    }
+
+    @Test
+    void keysAndValuesCannotBleedIntoEachOther() {
+        assertNotEquals(fingerprint(spec(), parameters("a", "b=c")), fingerprint(spec(), parameters("a=b", "c")));
+        assertNotEquals(fingerprint(spec(), parameters("a", "b;c=d")), fingerprint(spec(), parameters("a", "b", "c", "d")));
+    }
+
+    @Test
+    void nullAndEmptyValuesDiffer() {
+        assertNotEquals(fingerprint(spec(), parameters("Env", null)), fingerprint(spec(), parameters("Env", "")));
+    }
+
+    @Test
+    void fingerprintIsStableAcrossReleases() {
+        // Stored in every Stack status, so a changed encoding would resubmit every stack after an upgrade
+        assertEquals(SpecFingerprint.sha256("template=" + TEMPLATE_HASH + "\ncustomRoleARN=null\nparameters=3:Env=3:dev;\ntags=\ncapabilities=\n"),
+                fingerprint(spec(), parameters("Env", "dev")));
+    }
+
+    @Test
+    void urlTemplateHashDependsOnTheUrlOnly() {
+        StackSpec spec = spec();
+        spec.setTemplateURL("https://bucket.s3.amazonaws.com/vpc.yaml");
+
+        String hash = new TemplateCache(10, 1024).resolve(spec).getHash();
+
+        assertEquals(hash, new TemplateCache(10, 1024).resolve(spec).getHash());
+        assertEquals(SpecFingerprint.sha256("url:https://bucket.s3.amazonaws.com/vpc.yaml"), hash);
+    }
+
+    private static String fingerprint(StackSpec spec, Map<String, String> parameters) {
+        return SpecFingerprint.compute(spec, parameters, TEMPLATE_HASH, null);
+    }
+
+    private static StackSpec spec() {
+        return new StackSpec();
+    }
+
+    private static Map<String, String> parameters(String... keysAndValues) {
+        Map<String, String> parameters = new HashMap<>();
+        for(int i = 0; i < keysAndValues.length; i += 2) {
+            parameters.put(keysAndValues[i], keysAndValues[i + 1]);
+        }
+        return parameters;
+    }
+}
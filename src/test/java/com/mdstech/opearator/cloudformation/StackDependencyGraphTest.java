@@ -0,0 +1,84 @@
+package com.mdstech.opearator.cloudformation;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class StackDependencyGraphTest {
+
+    private final StackDependencyGraph graph = new StackDependencyGraph();
+
+    @Test
+    void acyclicGraphHasNoCycle() {
+        assertTrue(graph.link("ns/app", "uid-app", set("ns/network", "ns/database")).isEmpty());
+        assertTrue(graph.link("ns/database", "uid-database", set("ns/network")).isEmpty());
+        assertTrue(graph.link("ns/network", "uid-network", Collections.emptySet()).isEmpty());
+    }
+
+    @Test
+    void selfReferenceIsACycle() {
+        assertEquals(Arrays.asList("ns/app", "ns/app"), graph.link("ns/app", "uid-app", set("ns/app")));
+    }
+
+    @Test
+    void linkClosingACycleReturnsItsPath() {
+        graph.link("ns/a", "uid-a", set("ns/b"));
+        graph.link("ns/b", "uid-b", set("ns/c"));
+
+        assertEquals(Arrays.asList("ns/c", "ns/a", "ns/b", "ns/c"), graph.link("ns/c", "uid-c", set("ns/a")));
+    }
+
+    @Test
+    void relinkingBreaksTheCycle() {
+        graph.link("ns/a", "uid-a", set("ns/b"));
+        graph.link("ns/b", "uid-b", set("ns/a"));
+
+        assertTrue(graph.link("ns/b", "uid-b", Collections.emptySet()).isEmpty());
+        assertTrue(graph.link("ns/a", "uid-a", set("ns/b")).isEmpty());
+    }
+
+    @Test
+    void removedStackNoLongerClosesACycle() {
+        graph.link("ns/a", "uid-a", set("ns/b"));
+        graph.link("ns/b", "uid-b", set("ns/a"));
+
+        graph.remove("ns/b");
+
+        assertTrue(graph.link("ns/a", "uid-a", set("ns/b")).isEmpty());
+    }
+
+    @Test
+    void changedOutputsRetriggerDependentsAndBumpTheVersion() {
+        graph.link("ns/app", "uid-app", set("ns/network"));
+        long version = graph.getOutputsVersion();
+
+        assertEquals(set("uid-app"), graph.observe("ns/network", "uid-network", Map.of("VpcId", "vpc-1")));
+        assertEquals(version + 1, graph.getOutputsVersion());
+        assertTrue(graph.observe("ns/network", "uid-network", Map.of("VpcId", "vpc-1")).isEmpty());
+        assertEquals(version + 1, graph.getOutputsVersion());
+    }
+
+    @Test
+    void unsettledStackKeepsItsPublishedOutputsUntilRetracted() {
+        graph.link("ns/app", "uid-app", set("ns/network"));
+        graph.observe("ns/network", "uid-network", Map.of("VpcId", "vpc-1"));
+
+        assertTrue(graph.observe("ns/network", "uid-network", null).isEmpty());
+        assertEquals(Map.of("VpcId", "vpc-1"), graph.getOutputs("ns/network"));
+
+        assertEquals(set("uid-app"), graph.retract("ns/network"));
+        assertNull(graph.getOutputs("ns/network"));
+    }
+
+    private static Set<String> set(String... keys) {
+        return new HashSet<>(Arrays.asList(keys));
+    }
+}
@@ -0,0 +1,78 @@
+package com.mdstech.opearator.cloudformation;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class StatusWriterTest {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    @Test
+    void equalDocumentsGiveAnEmptyPatch() throws Exception {
+        JsonNode status = json("{'status':'CREATED','outputs':{'VpcId':'vpc-1'}}");
+
+        assertTrue(StatusWriter.diff(status, status.deepCopy()).isEmpty());
+    }
+
+    @Test
+    void changedScalarsAreTheOnlyFieldsWritten() throws Exception {
+        JsonNode patch = StatusWriter.diff(
+                json("{'status':'CREATE_IN_PROGRESS','stackID':'arn:1','observedGeneration':1}"),
+                json("{'status':'CREATED','stackID':'arn:1','observedGeneration':1}"));
+
+        assertEquals(json("{'status':'CREATED'}"), patch);
+    }
+
+    @Test
+    void nestedObjectsArePatchedFieldByField() throws Exception {
+        JsonNode patch = StatusWriter.diff(
+                json("{'outputs':{'VpcId':'vpc-1','SubnetId':'subnet-1'}}"),
+                json("{'outputs':{'VpcId':'vpc-2','SubnetId':'subnet-1','RouteTable':'rtb-1'}}"));
+
+        assertEquals(json("{'outputs':{'VpcId':'vpc-2','RouteTable':'rtb-1'}}"), patch);
+    }
+
+    @Test
+    void nestedObjectReplacingAScalarIsWrittenWhole() throws Exception {
+        JsonNode patch = StatusWriter.diff(
+                json("{'pendingOperation':'none'}"),
+                json("{'pendingOperation':{'operation':'CREATE','generation':2}}"));
+
+        assertEquals(json("{'pendingOperation':{'operation':'CREATE','generation':2}}"), patch);
+    }
+
+    @Test
+    void nullValuesRemoveOnlyFieldsThatAreSet() throws Exception {
+        JsonNode patch = StatusWriter.diff(
+                json("{'pendingOperation':{'operation':'CREATE'},'recentEvents':null}"),
+                json("{'pendingOperation':null,'recentEvents':null,'specFingerprint':null}"));
+
+        assertEquals(json("{'pendingOperation':null}"), patch);
+    }
+
+    @Test
+    void removedKeysArePatchedToNull() throws Exception {
+        JsonNode patch = StatusWriter.diff(
+                json("{'status':'CREATED','outputs':{'VpcId':'vpc-1','SubnetId':'subnet-1'},'recentEvents':['a']}"),
+                json("{'status':'CREATED','outputs':{'VpcId':'vpc-1'}}"));
+
+        assertEquals(json("{'outputs':{'SubnetId':null},'recentEvents':null}"), patch);
+    }
+
+    @Test
+    void arraysAreReplacedWhole() throws Exception {
+        JsonNode patch = StatusWriter.diff(
+                json("{'recentEvents':['a','b']}"),
+                json("{'recentEvents':['b','c']}"));
+
+        assertEquals(json("{'recentEvents':['b','c']}"), patch);
+    }
+
+    private static JsonNode json(String document) throws Exception {
+        return MAPPER.readTree(document.replace('\'', '"'));
+    }
+}
@@ -0,0 +1,47 @@
+package com.mdstech.opearator.cloudformation;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TokenBucketTest {
+
+    @Test
+    void burstIsGrantedWithoutWaiting() throws Exception {
+        TokenBucket bucket = new TokenBucket(1, 10);
+
+        long startedAt = System.nanoTime();
+        for(int i = 0; i < 10; i++) {
+            bucket.acquire();
+        }
+
+        assertTrue(System.nanoTime() - startedAt < TimeUnit.MILLISECONDS.toNanos(500));
+    }
+
+    @Test
+    void callsBeyondTheBurstWaitForTheRate() throws Exception {
+        TokenBucket bucket = new TokenBucket(20, 2);
+        bucket.acquire();
+        bucket.acquire();
+
+        long startedAt = System.nanoTime();
+        for(int i = 0; i < 4; i++) {
+            bucket.acquire();
+        }
+
+        // Four more permits at 20 per second take at least 200 ms
+        assertTrue(System.nanoTime() - startedAt >= TimeUnit.MILLISECONDS.toNanos(190));
+    }
+
+    @Test
+    void zeroBurstStillGrantsOnePermit() throws Exception {
+        TokenBucket bucket = new TokenBucket(1, 0);
+
+        long startedAt = System.nanoTime();
+        bucket.acquire();
+
+        assertTrue(System.nanoTime() - startedAt < TimeUnit.MILLISECONDS.toNanos(500));
+    }
+}